@@ -0,0 +1,83 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.lang.management.ManagementFactory;
+
+/** This class checks that the emulator doesn't allocate any memory once it is running, so
+ *  that garbage collection can't make it drop frames.  A headless emulator drawing with
+ *  ScanlineGraphicsChip is run for WARMUP_FRAMES, then the bytes allocated by the CPU thread
+ *  and the render thread are counted over CHECK_FRAMES.  This is done with the interpreter
+ *  and with the recompiler.  Exits with status 1 if anything was allocated.
+ *
+ *  Run with: java AllocationCheck [rom file]
+ */
+class AllocationCheck {
+	static final int WARMUP_FRAMES = 600;
+	static final int CHECK_FRAMES = 1000;
+
+	public static void main(String[] args) throws InterruptedException {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("Allocation counting isn't supported by this JVM");
+			System.exit(1);
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		byte[] rom = Dmgcpu.loadRom(args.length > 0 ? args[0] : "../roms/rom.gb");
+		boolean failed = false;
+		for (int mode = 0; mode < 2; mode++) {
+			Dmgcpu dmgcpu = new Dmgcpu(null, rom);
+			ScanlineGraphicsChip chip = new ScanlineGraphicsChip(null, dmgcpu);
+			dmgcpu.graphicsChip = chip;
+			dmgcpu.setRecompilerEnabled(mode == 1);
+			dmgcpu.reset();
+
+			dmgcpu.runFrames(WARMUP_FRAMES);
+			waitForRenderer(chip);
+			long cpuThread = Thread.currentThread().getId();
+			long renderThread = chip.renderThread.getId();
+			long cpuBefore = threads.getThreadAllocatedBytes(cpuThread);
+			long renderBefore = threads.getThreadAllocatedBytes(renderThread);
+
+			dmgcpu.runFrames(CHECK_FRAMES);
+			waitForRenderer(chip);
+			long cpuBytes = threads.getThreadAllocatedBytes(cpuThread) - cpuBefore;
+			long renderBytes = threads.getThreadAllocatedBytes(renderThread) - renderBefore;
+			chip.dispose();
+
+			System.out.println((mode == 1 ? "Recompiler" : "Interpreter") + ": " + cpuBytes + " bytes allocated by the CPU, " +
+			                   renderBytes + " by the renderer, over " + CHECK_FRAMES + " frames");
+			if ((cpuBytes != 0) || (renderBytes != 0)) {
+				failed = true;
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/** Wait until the render thread has drawn every line that has been logged */
+	static void waitForRenderer(ScanlineGraphicsChip chip) throws InterruptedException {
+		while (chip.readSeq != chip.writeSeq) {
+			Thread.sleep(1);
+		}
+	}
+}
@@ -0,0 +1,467 @@
+/*
+
+JavaBoy
+
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+/** This is the superclass of every block of Gameboy code translated into Java bytecode by the
+ *  Recompiler.  The generated run() method works on the copy of the registers held here, and
+ *  calls the helpers below for memory access and for anything that sets the flags.  The helpers
+ *  do exactly what the matching cases in Dmgcpu.executeDecoded() do, so a block always gives the same
+ *  result as interpreting it.
+ *
+ *  The generated classes are defined by their own class loader, so this class and its members
+ *  have to be public or protected for them to be reached.
+ */
+public abstract class CompiledBlock {
+	static final int F_ZERO =      0x80; // Zero flag
+	static final int F_SUBTRACT =  0x40; // Subtract/negative flag
+	static final int F_HALFCARRY = 0x20; // Half carry flag
+	static final int F_CARRY =     0x10; // Carry flag
+
+	// Registers, copied in from the CPU before the block runs and out again afterwards
+	protected int a, b, c, d, e, f, hl, sp;
+
+	Dmgcpu dmgcpu;
+
+	/** Address of the first and last bytes of the block */
+	int startPc, endPc;
+
+	/** Number of instructions in the block, and the cycles they take when no branch is taken */
+	int instructions, cycles;
+
+	/** The CPU's cycle count when the block started running */
+	long startCycles;
+
+	/** If the block ends with a backward jump, the address of the jump and where it goes.
+	 *  The idle loop detector is told when it is taken. */
+	int branchPc = -1, branchTarget = -1;
+
+	protected CompiledBlock() {
+	}
+
+	/** Run the generated code.  Returns the new program counter in the lower 16 bits and any extra
+	 *  cycles taken by a conditional branch in the upper bits. */
+	public abstract int run();
+
+	/** Run the block on the CPU's registers, and move the CPU on past it */
+	final void execute(Dmgcpu cpu) {
+		a = cpu.a;
+		b = cpu.b;
+		c = cpu.c;
+		d = cpu.d;
+		e = cpu.e;
+		f = cpu.f;
+		hl = cpu.hl;
+		sp = cpu.sp;
+		startCycles = cpu.cycles;
+
+		int result = run();
+
+		cpu.a = a;
+		cpu.b = b;
+		cpu.c = c;
+		cpu.d = d;
+		cpu.e = e;
+		cpu.f = f;
+		cpu.hl = hl;
+		cpu.sp = sp;
+		cpu.pc = result & 0xFFFF;
+		cpu.cycles = startCycles + cycles + (result >>> 16);
+		cpu.instrCount += instructions;
+
+		if ((branchTarget != -1) && (cpu.pc == branchTarget)) {
+			cpu.idleLoops.backwardBranch(branchPc, branchTarget);
+		}
+	}
+
+	/** Read from the CPU address space, as the interpreter's data reads do.  elapsed is the
+	 *  number of cycles the interpreter would have counted since the start of the block when
+	 *  it made the read, so that the timer and anything else that depends on the cycle count
+	 *  sees the same value. */
+	protected final int read(int addr, int elapsed) {
+		Dmgcpu cpu = dmgcpu;
+		cpu.cycles = startCycles + elapsed;
+		return cpu.addressRead(addr);
+	}
+
+	/** Read straight from memory, as the interpreter does when popping the stack */
+	protected final int peek(int addr) {
+		return JavaBoy.unsign(dmgcpu.memory[addr]);
+	}
+
+	/** Write to the CPU address space, with the cycle count brought up to date as for read() */
+	protected final void write(int addr, int data, int elapsed) {
+		Dmgcpu cpu = dmgcpu;
+		cpu.cycles = startCycles + elapsed;
+		cpu.addressWrite(addr, data);
+	}
+
+	/** 8-bit ALU operation with a register operand, opcodes 0x80 - 0xBF.  Returns (f << 8) | a.
+	 *  ADC and SBC fall through into ADD and SUB, as in the interpreter. */
+	@SuppressWarnings("fallthrough")
+	protected static final int aluRegister(int op, int a, int f, int operand) {
+		switch (op) {
+		case 1 : // ADC A, r
+			if ((f & F_CARRY) != 0) {
+				operand++;
+			}
+			// Note!  No break!
+		case 0 : // ADD A, r
+			f = 0;
+			if ((((a & 0x0F) + (operand & 0x0F)) & 0xF0) != 0x00) {
+				f |= F_HALFCARRY;
+			}
+			a += operand;
+			if (a == 0) {
+				f |= F_ZERO;
+			}
+			if ((a & 0xFF00) != 0) {
+				if (a == 0x0100) {
+					f |= F_ZERO + F_CARRY + F_HALFCARRY;
+					a = 0;
+				} else {
+					f |= F_CARRY + F_HALFCARRY;
+					a &= 0x00FF;
+				}
+			}
+			break;
+		case 3 : // SBC A, r
+			if ((f & F_CARRY) != 0) {
+				operand++;
+			}
+			// Note! No break!
+		case 2 : // SUB A, r
+			f = F_SUBTRACT;
+			if ((((a & 0x0F) - (operand & 0x0F)) & 0xFFF0) != 0x00) {
+				f |= F_HALFCARRY;
+			}
+			a -= operand;
+			if ((a & 0xFF00) != 0) {
+				a &= 0x00FF;
+				f |= F_CARRY;
+			}
+			if (a == 0) {
+				f |= F_ZERO;
+			}
+			break;
+		case 4 : // AND A, r
+			a &= operand;
+			f = (a == 0) ? F_ZERO : 0;
+			break;
+		case 5 : // XOR A, r
+			a ^= operand;
+			f = (a == 0) ? F_ZERO : 0;
+			break;
+		case 6 : // OR A, r
+			a |= operand;
+			f = (a == 0) ? F_ZERO : 0;
+			break;
+		case 7 : // CP A, r
+			f = F_SUBTRACT;
+			if (a == operand) {
+				f |= F_ZERO;
+			}
+			if (a < operand) {
+				f |= F_CARRY;
+			}
+			if ((a & 0x0F) < (operand & 0x0F)) {
+				f |= F_HALFCARRY;
+			}
+			break;
+		}
+		return (f << 8) | a;
+	}
+
+	/** 8-bit ALU operation with an immediate operand.  Returns (f << 8) | a. */
+	@SuppressWarnings("fallthrough")
+	protected static final int aluImmediate(int opcode, int a, int f, int n) {
+		switch (opcode) {
+		case 0xCE :               // ADC A, nn
+			if ((f & F_CARRY) != 0) {
+				n++;
+			}
+			// Note!  No break!
+		case 0xC6 :               // ADD A, nn
+			f = 0;
+			if ((((a & 0x0F) + (n & 0x0F)) & 0xF0) != 0x00) {
+				f |= F_HALFCARRY;
+			}
+			a += n;
+			if ((a & 0xFF00) != 0) {
+				if (a == 0x0100) {
+					f |= F_ZERO + F_CARRY + F_HALFCARRY;
+					a = 0;
+				} else {
+					f |= F_CARRY + F_HALFCARRY;
+					a &= 0x00FF;
+				}
+			}
+			return (f << 8) | a;
+		case 0xDE :               // SBC A, nn
+			if ((f & F_CARRY) != 0) {
+				n++;
+			}
+			return aluRegister(2, a, f, n);
+		case 0xD6 :               // SUB A, nn
+			return aluRegister(2, a, f, n);
+		case 0xE6 :               // AND nn
+			return aluRegister(4, a, f, n);
+		case 0xEE :               // XOR A, nn
+			return aluRegister(5, a, f, n);
+		case 0xF6 :               // OR A, nn
+			return aluRegister(6, a, f, n);
+		default :                 // CP nn
+			f = 0;
+			if (n == a) {
+				f |= F_ZERO;
+			} else if (a < n) {
+				f |= F_CARRY;
+			}
+			return (f << 8) | a;
+		}
+	}
+
+	/** Rotates and flag operations on the accumulator (RLCA, RRCA, RLA, RRA, CPL, SCF, CCF).
+	 *  Returns (f << 8) | a. */
+	protected static final int accumulatorOp(int opcode, int a, int f) {
+		int newf;
+		switch (opcode) {
+		case 0x07 :               // RLC A
+			f = 0;
+			a <<= 1;
+			if ((a & 0x0100) != 0) {
+				f |= F_CARRY;
+				a |= 1;
+				a &= 0xFF;
+			}
+			if (a == 0) {
+				f |= F_ZERO;
+			}
+			break;
+		case 0x0F :               // RRC A
+			f = ((a & 0x01) == 0x01) ? F_CARRY : 0;
+			a >>= 1;
+			if ((f & F_CARRY) == F_CARRY) {
+				a |= 0x80;
+			}
+			if (a == 0) {
+				f |= F_ZERO;
+			}
+			break;
+		case 0x17 :               // RL A
+			newf = ((a & 0x80) == 0x80) ? F_CARRY : 0;
+			a <<= 1;
+			if ((f & F_CARRY) == F_CARRY) {
+				a |= 1;
+			}
+			a &= 0xFF;
+			if (a == 0) {
+				newf |= F_ZERO;
+			}
+			f = newf;
+			break;
+		case 0x1F :               // RR A
+			newf = ((a & 0x01) == 0x01) ? F_CARRY : 0;
+			a >>= 1;
+			if ((f & F_CARRY) == F_CARRY) {
+				a |= 0x80;
+			}
+			if (a == 0) {
+				newf |= F_ZERO;
+			}
+			f = newf;
+			break;
+		case 0x2F :               // CPL A
+			a = (~a) & 0x00FF;
+			f = (f & (F_CARRY | F_ZERO)) | F_SUBTRACT | F_HALFCARRY;
+			break;
+		case 0x37 :               // SCF
+			f = (f & F_ZERO) | F_CARRY;
+			break;
+		case 0x3F :               // CCF
+			if ((f & F_CARRY) == 0) {
+				f = (f & F_ZERO) | F_CARRY;
+			} else {
+				f = f & F_ZERO;
+			}
+			break;
+		}
+		return (f << 8) | a;
+	}
+
+	/** INC r.  Returns (f << 8) | value. */
+	protected static final int inc8(int value, int f) {
+		f &= F_CARRY;
+		switch (value) {
+		case 0xFF: f |= F_HALFCARRY + F_ZERO;
+			value = 0x00;
+			break;
+		case 0x0F: f |= F_HALFCARRY;
+			value = 0x10;
+			break;
+		default:   value++;
+			break;
+		}
+		return (f << 8) | value;
+	}
+
+	/** DEC r.  Returns (f << 8) | value. */
+	protected static final int dec8(int value, int f) {
+		f &= F_CARRY;
+		f |= F_SUBTRACT;
+		switch (value) {
+		case 0x00: f |= F_HALFCARRY;
+			value = 0xFF;
+			break;
+		case 0x10: f |= F_HALFCARRY;
+			value = 0x0F;
+			break;
+		case 0x01: f |= F_ZERO;
+			value = 0x00;
+			break;
+		default:   value--;
+			break;
+		}
+		return (f << 8) | value;
+	}
+
+	/** ADD HL, rr and ADD SP, nn.  Returns (f << 16) | result. */
+	protected static final int add16(int x, int v, int f) {
+		x += v;
+		if ((x & 0xFFFF0000) != 0) {
+			f = (f & (F_SUBTRACT + F_ZERO + F_HALFCARRY)) | F_CARRY;
+			x &= 0xFFFF;
+		} else {
+			f = f & (F_SUBTRACT + F_ZERO + F_HALFCARRY);
+		}
+		return (f << 16) | x;
+	}
+
+	/** LD HL, SP + nn.  Returns (f << 16) | hl. */
+	protected static final int ldHlSp(int sp, int offset) {
+		int hl = sp + offset;
+		int f = 0;
+		if ((hl & 0x10000) != 0) {
+			f = F_CARRY;
+			hl &= 0xFFFF;
+		}
+		return (f << 16) | (hl & 0xFFFF);
+	}
+
+	/** CB prefixed shift, rotate and bit operations.  Returns (f << 8) | data. */
+	protected static final int cb(int op, int data, int f) {
+		int newf;
+		if ((op & 0xC0) == 0) {
+			switch (op & 0xF8) {
+			case 0x00 :          // RLC r
+				f = ((data & 0x80) == 0x80) ? F_CARRY : 0;
+				data <<= 1;
+				if ((f & F_CARRY) == F_CARRY) {
+					data |= 1;
+				}
+				data &= 0xFF;
+				if (data == 0) {
+					f |= F_ZERO;
+				}
+				break;
+			case 0x08 :          // RRC r
+				f = ((data & 0x01) == 0x01) ? F_CARRY : 0;
+				data >>= 1;
+				if ((f & F_CARRY) == F_CARRY) {
+					data |= 0x80;
+				}
+				if (data == 0) {
+					f |= F_ZERO;
+				}
+				break;
+			case 0x10 :          // RL r
+				newf = ((data & 0x80) == 0x80) ? F_CARRY : 0;
+				data <<= 1;
+				if ((f & F_CARRY) == F_CARRY) {
+					data |= 1;
+				}
+				data &= 0xFF;
+				if (data == 0) {
+					newf |= F_ZERO;
+				}
+				f = newf;
+				break;
+			case 0x18 :          // RR r
+				newf = ((data & 0x01) == 0x01) ? F_CARRY : 0;
+				data >>= 1;
+				if ((f & F_CARRY) == F_CARRY) {
+					data |= 0x80;
+				}
+				if (data == 0) {
+					newf |= F_ZERO;
+				}
+				f = newf;
+				break;
+			case 0x20 :          // SLA r
+				f = ((data & 0x80) == 0x80) ? F_CARRY : 0;
+				data <<= 1;
+				data &= 0xFF;
+				if (data == 0) {
+					f |= F_ZERO;
+				}
+				break;
+			case 0x28 :          // SRA r
+				int topBit = data & 0x80;
+				f = ((data & 0x01) == 0x01) ? F_CARRY : 0;
+				data >>= 1;
+				data |= topBit;
+				if (data == 0) {
+					f |= F_ZERO;
+				}
+				break;
+			case 0x30 :          // SWAP r
+				data = ((data & 0x0F) << 4) | ((data & 0xF0) >> 4);
+				f = (data == 0) ? F_ZERO : 0;
+				break;
+			case 0x38 :          // SRL r
+				f = ((data & 0x01) == 0x01) ? F_CARRY : 0;
+				data >>= 1;
+				if (data == 0) {
+					f |= F_ZERO;
+				}
+				break;
+			}
+		} else {
+			int mask = 0x01 << ((op & 0x38) >> 3);
+			switch (op & 0xC0) {
+			case 0x40 :          // BIT n, r
+				if ((data & mask) != 0) {
+					f = (f & F_CARRY) | F_HALFCARRY;
+				} else {
+					f = (f & F_CARRY) | (F_HALFCARRY + F_ZERO);
+				}
+				break;
+			case 0x80 :          // RES n, r
+				data &= 0xFF - mask;
+				break;
+			default :            // SET n, r
+				data |= mask;
+				break;
+			}
+		}
+		return (f << 8) | data;
+	}
+}
@@ -0,0 +1,480 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.*;
+import java.util.ArrayList;
+
+/** This class stops the CPU at breakpoints and watchpoints, and steps it through code.
+ *  Breakpoints are on PC addresses, and can have a condition that has to be true for them
+ *  to stop the CPU.  Conditions can also be checked before every instruction wherever it is.
+ *  Watchpoints stop the CPU after an instruction that reads or writes an address in a range,
+ *  optionally only when a particular value is read or written.  The LD D, D instruction can
+ *  also be used as a breakpoint, as some homebrew code expects.
+ *  <p>
+ *  While nothing is set, the CPU runs its normal loop and never calls the debugger.  Once
+ *  anything is set it switches to Dmgcpu.executeInstrumented(), even while running, and
+ *  watchpoints are found with a table of flags for each address.  Watchpoints see the
+ *  accesses made through Dmgcpu.addressRead() and addressWrite(), which is everything except
+ *  the stack being popped.
+ *
+ *  Run with: java Debugger &lt;rom file&gt;
+ *  for a simple command line debugger.
+ */
+class Debugger {
+	// Watchpoint flags
+	static final int WATCH_READ =  1;
+	static final int WATCH_WRITE = 2;
+
+	// Reasons for the CPU stopping
+	static final int STOP_NONE =       0;  // Stopped by something else, or still running
+	static final int STOP_BREAKPOINT = 1;
+	static final int STOP_CONDITION =  2;
+	static final int STOP_READ =       3;
+	static final int STOP_WRITE =      4;
+	static final int STOP_LD_D_D =     5;
+	static final int STOP_STEP =       6;
+	static final int STOP_PAUSE =      7;
+
+	static final String[] STOP_NAMES = {"Stopped", "Breakpoint", "Condition", "Read", "Write", "LD D, D", "Step", "Paused"};
+
+	/** Something to check when the CPU is about to run an instruction */
+	interface Condition {
+		boolean test(Dmgcpu cpu);
+	}
+
+	/** The condition for a breakpoint that always stops */
+	static final Condition ALWAYS = new Condition() {
+		public boolean test(Dmgcpu cpu) {
+			return true;
+		}
+	};
+
+	/** A range of addresses to watch, start and end included */
+	static class Watchpoint {
+		int start, end;
+		int flags;
+
+		/** The value that has to be read or written for it to stop the CPU, or -1 for any */
+		int value;
+
+		Watchpoint(int start, int end, int flags, int value) {
+			this.start = start;
+			this.end = end;
+			this.flags = flags;
+			this.value = value;
+		}
+	}
+
+	Dmgcpu dmgcpu;
+
+	/** The condition for the breakpoint at each address, null if there isn't one */
+	Condition[] breakpoints = new Condition[0x10000];
+	int breakpointCount = 0;
+
+	/** Conditions checked before every instruction */
+	ArrayList<Condition> conditions = new ArrayList<Condition>();
+
+	ArrayList<Watchpoint> watchpoints = new ArrayList<Watchpoint>();
+
+	/** The WATCH_ flags of all of the watchpoints covering each address */
+	byte[] watched = new byte[0x10000];
+
+	/** Set to stop the CPU whenever it reaches an LD D, D instruction */
+	boolean breakOnLdDD = false;
+
+	/** Instructions left to run before stopping, or -1 when not stepping */
+	int stepsLeft = -1;
+
+	/** The CPU always runs the instruction it was stopped at when it is restarted */
+	int skipPc = -1;
+
+	/** Address of the instruction that is running */
+	int instructionPc;
+
+	/** Why the CPU last stopped, where, and for watchpoints the address and value accessed */
+	int stopReason = STOP_NONE;
+	int stopPc;
+	int stopAddress;
+	int stopValue;
+
+	/** Create a debugger and attach it to the CPU */
+	public Debugger(Dmgcpu d) {
+		dmgcpu = d;
+		d.setDebugger(this);
+	}
+
+	/** True if the CPU has to call the debugger before every instruction */
+	public final boolean isActive() {
+		return (breakpointCount != 0) || (conditions.size() != 0) || (watchpoints.size() != 0) ||
+		       breakOnLdDD || (stepsLeft != -1);
+	}
+
+	/** Stop the CPU at addr */
+	public void setBreakpoint(int addr) {
+		setBreakpoint(addr, ALWAYS);
+	}
+
+	/** Stop the CPU at addr when the condition is true */
+	public void setBreakpoint(int addr, Condition condition) {
+		if (breakpoints[addr] == null) breakpointCount++;
+		breakpoints[addr] = condition;
+		dmgcpu.loopChanged();
+	}
+
+	public void clearBreakpoint(int addr) {
+		if (breakpoints[addr] != null) breakpointCount--;
+		breakpoints[addr] = null;
+		dmgcpu.loopChanged();
+	}
+
+	/** Stop the CPU before any instruction when the condition is true */
+	public void addCondition(Condition condition) {
+		conditions.add(condition);
+		dmgcpu.loopChanged();
+	}
+
+	public void removeCondition(Condition condition) {
+		conditions.remove(condition);
+		dmgcpu.loopChanged();
+	}
+
+	/** Stop the CPU after it reads or writes, as given by the WATCH_ flags, an address from
+	 *  start to end */
+	public void watch(int start, int end, int flags) {
+		watch(start, end, flags, -1);
+	}
+
+	/** Stop the CPU after it reads or writes value to an address from start to end */
+	public void watch(int start, int end, int flags, int value) {
+		watchpoints.add(new Watchpoint(start, end, flags, value));
+		updateWatched();
+	}
+
+	/** Remove the watchpoints covering exactly start to end */
+	public void unwatch(int start, int end) {
+		for (int r = watchpoints.size() - 1; r >= 0; r--) {
+			Watchpoint w = watchpoints.get(r);
+			if ((w.start == start) && (w.end == end)) {
+				watchpoints.remove(r);
+			}
+		}
+		updateWatched();
+	}
+
+	/** Remove every breakpoint, condition and watchpoint */
+	public void clear() {
+		java.util.Arrays.fill(breakpoints, null);
+		breakpointCount = 0;
+		conditions.clear();
+		watchpoints.clear();
+		breakOnLdDD = false;
+		updateWatched();
+	}
+
+	/** Rebuild the table of watched addresses */
+	final void updateWatched() {
+		java.util.Arrays.fill(watched, (byte) 0);
+		for (int r = 0; r < watchpoints.size(); r++) {
+			Watchpoint w = watchpoints.get(r);
+			for (int addr = w.start; addr <= w.end; addr++) {
+				watched[addr] |= w.flags;
+			}
+		}
+		dmgcpu.updateHooks();
+	}
+
+	/** Run the CPU until it stops.  Returns the reason, which is STOP_NONE if something other
+	 *  than the debugger stopped it.  If frames isn't zero it stops after that many frames. */
+	public int resume(int frames) {
+		stepsLeft = -1;
+		return run(frames);
+	}
+
+	/** Run the specified number of instructions, unless something stops the CPU first.
+	 *  Returns the reason it stopped. */
+	public int step(int instructions) {
+		stepsLeft = instructions;
+		return run(0);
+	}
+
+	final int run(int frames) {
+		stopReason = STOP_NONE;
+		skipPc = dmgcpu.pc;
+		if (frames == 0) {
+			dmgcpu.execute();
+		} else {
+			dmgcpu.runFrames(frames);
+		}
+		if (stopReason == STOP_NONE) {
+			stopPc = dmgcpu.pc;
+		}
+		stepsLeft = -1;
+		skipPc = -1;
+		return stopReason;
+	}
+
+	/** Stop the CPU from another thread */
+	public void pause() {
+		stopReason = STOP_PAUSE;
+		stopPc = dmgcpu.pc;
+		dmgcpu.stop();
+	}
+
+	/** Called by the CPU before it executes the decoded instruction inst at pc.  Returns true
+	 *  if it should stop instead. */
+	public final boolean instruction(int pc, int inst) {
+		instructionPc = pc;
+		int skip = skipPc;
+		skipPc = -1;
+		if (pc != skip) {
+			if (stepsLeft == 0) return stop(STOP_STEP, pc);
+			Condition c = breakpoints[pc];
+			if ((c != null) && c.test(dmgcpu)) return stop(STOP_BREAKPOINT, pc);
+			if (breakOnLdDD && ((inst & 0xFF) == 0x52)) return stop(STOP_LD_D_D, pc);
+			for (int r = 0; r < conditions.size(); r++) {
+				if (conditions.get(r).test(dmgcpu)) return stop(STOP_CONDITION, pc);
+			}
+		}
+		if (stepsLeft > 0) stepsLeft--;
+		return false;
+	}
+
+	final boolean stop(int reason, int pc) {
+		stopReason = reason;
+		stopPc = pc;
+		stepsLeft = -1;
+		dmgcpu.stop();
+		return true;
+	}
+
+	/** Called by the CPU before it reads from addr */
+	public final void memoryRead(int addr) {
+		if ((watched[addr] & WATCH_READ) != 0) {
+			accessed(addr, JavaBoy.unsign(dmgcpu.memory[addr]), WATCH_READ, STOP_READ);
+		}
+	}
+
+	/** Called by the CPU before it writes data to addr */
+	public final void memoryWrite(int addr, int data) {
+		if ((watched[addr] & WATCH_WRITE) != 0) {
+			accessed(addr, data & 0xFF, WATCH_WRITE, STOP_WRITE);
+		}
+	}
+
+	/** Stop the CPU at the end of this instruction if a watchpoint matches the access */
+	final void accessed(int addr, int value, int flag, int reason) {
+		for (int r = 0; r < watchpoints.size(); r++) {
+			Watchpoint w = watchpoints.get(r);
+			if (((w.flags & flag) != 0) && (addr >= w.start) && (addr <= w.end) &&
+			        ((w.value == -1) || (w.value == value))) {
+				stop(reason, instructionPc);
+				stopAddress = addr;
+				stopValue = value;
+				return;
+			}
+		}
+	}
+
+	/** Operands that can be used in conditions */
+	static final String[] OPERANDS = {"A", "F", "B", "C", "D", "E", "H", "L", "BC", "DE", "HL", "SP", "PC"};
+
+	/** Returns a register value, by its index in OPERANDS, or the memory at addr if it is -1 */
+	static final int operand(Dmgcpu cpu, int which, int addr) {
+		switch (which) {
+		case 0 :  return cpu.a;
+		case 1 :  return cpu.f;
+		case 2 :  return cpu.b;
+		case 3 :  return cpu.c;
+		case 4 :  return cpu.d;
+		case 5 :  return cpu.e;
+		case 6 :  return cpu.hl >> 8;
+		case 7 :  return cpu.hl & 0xFF;
+		case 8 :  return (cpu.b << 8) | cpu.c;
+		case 9 :  return (cpu.d << 8) | cpu.e;
+		case 10 : return cpu.hl;
+		case 11 : return cpu.sp;
+		case 12 : return cpu.pc;
+		default : return JavaBoy.unsign(cpu.memory[addr]);
+		}
+	}
+
+	/** Parse a condition comparing a register or the memory at an address with a hex
+	 *  number, like A==3F, HL>=C000 or [FF44]!=90.  Throws IllegalArgumentException if it
+	 *  isn't one. */
+	public static Condition parseCondition(final String text) {
+		String s = text.replace(" ", "").toUpperCase();
+		int opStart = 0;
+		while ((opStart < s.length()) && ("=!<>".indexOf(s.charAt(opStart)) == -1)) {
+			opStart++;
+		}
+		int opEnd = opStart;
+		while ((opEnd < s.length()) && ("=!<>".indexOf(s.charAt(opEnd)) != -1)) {
+			opEnd++;
+		}
+		final String op = s.substring(opStart, opEnd);
+		String left = s.substring(0, opStart);
+		final int value = InstructionTrace.parseHex(s, opEnd, s.length());
+
+		int which = -1;
+		int addr = 0;
+		if (left.startsWith("[") && left.endsWith("]")) {
+			addr = InstructionTrace.parseHex(left, 1, left.length() - 1);
+		} else {
+			which = java.util.Arrays.asList(OPERANDS).indexOf(left);
+			if (which == -1) addr = -1;
+		}
+		if ((addr < 0) || (addr > 0xFFFF) || (value == -1) ||
+		        !java.util.Arrays.asList("==", "!=", "<", ">", "<=", ">=").contains(op)) {
+			throw new IllegalArgumentException("Bad condition: " + text);
+		}
+
+		final int operand = which;
+		final int address = addr;
+		return new Condition() {
+			public boolean test(Dmgcpu cpu) {
+				int v = operand(cpu, operand, address);
+				switch (op.charAt(0)) {
+				case '=' : return v == value;
+				case '!' : return v != value;
+				case '<' : return (op.length() == 1) ? v < value : v <= value;
+				default :  return (op.length() == 1) ? v > value : v >= value;
+				}
+			}
+
+			public String toString() {
+				return text;
+			}
+		};
+	}
+
+	/** The registers, in the same format as an instruction trace */
+	public static String registers(Dmgcpu cpu) {
+		int[] values = new int[InstructionTrace.FIELDS.length];
+		for (int r = 0; r < 8; r++) {
+			values[r] = operand(cpu, r, 0);
+		}
+		values[8] = cpu.sp;
+		values[9] = cpu.pc;
+		return InstructionTrace.format(values);
+	}
+
+	/** Describe why the CPU last stopped */
+	public String describeStop() {
+		String s = STOP_NAMES[stopReason] + " at " + Profiler.hex(stopPc, 4);
+		if ((stopReason == STOP_READ) || (stopReason == STOP_WRITE)) {
+			s += ", " + Profiler.hex(stopValue, 2) + (stopReason == STOP_READ ? " read from " : " written to ") +
+			     Profiler.hex(stopAddress, 4);
+		}
+		return s;
+	}
+
+	/** Run the command line debugger on the given input, printing to out.  The commands are:
+	 *  <pre>
+	 *  b &lt;addr&gt; [if &lt;condition&gt;]        Set a breakpoint
+	 *  d &lt;addr&gt;                          Delete a breakpoint
+	 *  when &lt;condition&gt;                  Stop whenever the condition is true
+	 *  w r|w|rw &lt;start&gt; [end] [= value]  Watch memory
+	 *  u &lt;start&gt; [end]                   Remove a watchpoint
+	 *  lddd on|off                       Stop at LD D, D
+	 *  s [instructions]                  Step
+	 *  c [frames]                        Continue
+	 *  r                                 Show the registers
+	 *  x &lt;addr&gt; [length]                 Show memory
+	 *  q                                 Quit
+	 *  </pre>
+	 */
+	public void commandLoop(BufferedReader in, PrintStream out) throws IOException {
+		String line;
+		out.println(registers(dmgcpu));
+		while ((line = in.readLine()) != null) {
+			String[] words = line.trim().split("\\s+");
+			String command = words[0].toLowerCase();
+			try {
+				if (command.equals("b") && (words.length >= 2)) {
+					int addr = hexArgument(words[1]);
+					int condition = line.indexOf(" if ");
+					setBreakpoint(addr, condition == -1 ? ALWAYS : parseCondition(line.substring(condition + 4)));
+				} else if (command.equals("d") && (words.length == 2)) {
+					clearBreakpoint(hexArgument(words[1]));
+				} else if (command.equals("when") && (words.length >= 2)) {
+					addCondition(parseCondition(line.trim().substring(4)));
+				} else if (command.equals("w") && (words.length >= 3)) {
+					int flags = (words[1].indexOf('r') != -1 ? WATCH_READ : 0) | (words[1].indexOf('w') != -1 ? WATCH_WRITE : 0);
+					int start = hexArgument(words[2]);
+					int end = ((words.length >= 4) && !words[3].equals("=")) ? hexArgument(words[3]) : start;
+					int equals = line.indexOf('=');
+					watch(start, end, flags, equals == -1 ? -1 : hexArgument(line.substring(equals + 1).trim()));
+				} else if (command.equals("u") && (words.length >= 2)) {
+					int start = hexArgument(words[1]);
+					unwatch(start, words.length >= 3 ? hexArgument(words[2]) : start);
+				} else if (command.equals("lddd") && (words.length == 2)) {
+					breakOnLdDD = words[1].equalsIgnoreCase("on");
+				} else if (command.equals("s")) {
+					int reason = step(words.length >= 2 ? Integer.parseInt(words[1]) : 1);
+					if (reason != STOP_STEP) out.println(describeStop());
+					out.println(registers(dmgcpu));
+				} else if (command.equals("c")) {
+					resume(words.length >= 2 ? Integer.parseInt(words[1]) : 0);
+					out.println(describeStop());
+					out.println(registers(dmgcpu));
+				} else if (command.equals("r")) {
+					out.println(registers(dmgcpu));
+				} else if (command.equals("x") && (words.length >= 2)) {
+					int addr = hexArgument(words[1]);
+					int length = words.length >= 3 ? hexArgument(words[2]) : 0x10;
+					for (int r = 0; r < length; r += 0x10) {
+						StringBuilder s = new StringBuilder(Profiler.hex((addr + r) & 0xFFFF, 4)).append(':');
+						for (int i = r; (i < r + 0x10) && (i < length); i++) {
+							s.append(' ').append(Profiler.hex(JavaBoy.unsign(dmgcpu.memory[(addr + i) & 0xFFFF]), 2));
+						}
+						out.println(s);
+					}
+				} else if (command.equals("q")) {
+					return;
+				} else if (command.length() != 0) {
+					out.println("Unknown command: " + line);
+				}
+			} catch (IllegalArgumentException e) {
+				out.println(e.getMessage());
+			}
+		}
+	}
+
+	static final int hexArgument(String s) {
+		int value = InstructionTrace.parseHex(s, 0, s.length());
+		if ((value < 0) || (value > 0xFFFF)) {
+			throw new IllegalArgumentException("Bad address: " + s);
+		}
+		return value;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: java Debugger <rom file>");
+			System.exit(2);
+		}
+		Dmgcpu dmgcpu = new Dmgcpu(null, Dmgcpu.loadRom(args[0]));
+		dmgcpu.reset();
+		new Debugger(dmgcpu).commandLoop(new BufferedReader(new InputStreamReader(System.in)), System.out);
+	}
+}
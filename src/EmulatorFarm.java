@@ -0,0 +1,187 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** This class runs many headless emulators at once on a shared pool of threads, for
+ *  automated testing.  Each emulator runs for framesPerSlice frames and then goes to the back
+ *  of the pool's queue, so thousands of emulators can share one thread per core.  Emulators
+ *  added with the same ROM array share one RomImage, so the ROM is only decoded and checked
+ *  for polling loops once however many emulators run it.
+ */
+class EmulatorFarm {
+	static final int DEFAULT_FRAMES_PER_SLICE = 10;
+
+	/** The pool running the machines.  Null until the farm is started, and made again after a stop. */
+	ExecutorService executor = null;
+	int threads;
+	int framesPerSlice;
+
+	/** The shared image made for each ROM array passed to add() */
+	Map<byte[], RomImage> romImages = new IdentityHashMap<byte[], RomImage>();
+
+	List<Machine> machines = new ArrayList<Machine>();
+
+	/** Number of machines that haven't finished yet */
+	int active = 0;
+
+	volatile boolean running = false;
+
+	/** Frames completed by all of the machines since the farm was started */
+	AtomicLong totalFrames = new AtomicLong();
+	long startTime;
+
+	/** Create a farm with a thread per processor */
+	public EmulatorFarm() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_FRAMES_PER_SLICE);
+	}
+
+	public EmulatorFarm(int threads, int framesPerSlice) {
+		this.threads = threads;
+		this.framesPerSlice = framesPerSlice;
+	}
+
+	/** Add a machine that runs until the farm is stopped */
+	public Dmgcpu add(byte[] rom) {
+		return add(rom, Long.MAX_VALUE);
+	}
+
+	/** Add a machine that runs the specified number of frames.  It starts running straight away
+	 *  if the farm has been started. */
+	public synchronized Dmgcpu add(byte[] rom, long frames) {
+		RomImage image = romImages.get(rom);
+		if (image == null) {
+			image = new RomImage(rom);
+			romImages.put(rom, image);
+		}
+		return add(image, frames);
+	}
+
+	/** Add a machine running a ROM image that may be shared with machines outside the farm */
+	public synchronized Dmgcpu add(RomImage rom, long frames) {
+		Dmgcpu dmgcpu = new Dmgcpu(null, rom);
+		dmgcpu.reset();
+		Machine m = new Machine(dmgcpu, frames);
+		machines.add(m);
+		active++;
+		if (running) {
+			executor.execute(m);
+		}
+		return dmgcpu;
+	}
+
+	/** Start running the machines on a new pool of threads.  The farm can be started again
+	 *  once stop() has returned. */
+	public synchronized void start() {
+		if (running) return;
+		running = true;
+		if ((executor == null) || executor.isShutdown()) {
+			executor = Executors.newFixedThreadPool(threads);
+		}
+		startTime = System.currentTimeMillis();
+		totalFrames.set(0);
+		for (int r = 0; r < machines.size(); r++) {
+			Machine m = machines.get(r);
+			if (!m.finished) {
+				executor.execute(m);
+			}
+		}
+	}
+
+	/** Stop all of the machines at the end of their current slice, and shut down the threads */
+	public void stop() {
+		ExecutorService stopping;
+		synchronized (this) {
+			running = false;
+			stopping = executor;
+		}
+		if (stopping == null) return;
+		stopping.shutdown();
+		try {
+			stopping.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+		}
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	/** Wait until every machine has run all of it's frames or stopped on an unknown opcode,
+	 *  or the farm has been stopped */
+	public synchronized void waitUntilFinished() throws InterruptedException {
+		while ((active > 0) && running) {
+			wait();
+		}
+	}
+
+	synchronized void finished(Machine m) {
+		m.finished = true;
+		active--;
+		notifyAll();
+	}
+
+	/** Frames per second completed by all of the machines together since the farm was started */
+	public double framesPerSecond() {
+		long elapsed = System.currentTimeMillis() - startTime;
+		if (elapsed <= 0) return 0;
+		return totalFrames.get() * 1000.0 / elapsed;
+	}
+
+	/** One emulator in the farm.  Each run() is one slice. */
+	class Machine implements Runnable {
+		Dmgcpu dmgcpu;
+		long frameLimit;
+		volatile boolean finished = false;
+
+		Machine(Dmgcpu d, long frames) {
+			dmgcpu = d;
+			frameLimit = frames;
+		}
+
+		public void run() {
+			if (!running) return;
+			long before = dmgcpu.frameCount;
+			int slice = (int) Math.min(framesPerSlice, frameLimit - before);
+			boolean completed = dmgcpu.runFrames(slice);
+			totalFrames.addAndGet(dmgcpu.frameCount - before);
+
+			if (!completed || (dmgcpu.frameCount >= frameLimit)) {
+				finished(this);
+			} else if (running) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// The farm has been stopped
+				}
+			}
+		}
+	}
+}
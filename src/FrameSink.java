@@ -0,0 +1,31 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+/** Something that is given each frame as soon as the render thread finishes it.  Sinks are
+ *  called on the render thread, so they must not hold it up: anything slow should be handed
+ *  to another thread.  The pixels are only valid until the call returns.
+ */
+interface FrameSink {
+	/** Called with the RGB pixels of frame number frame, WIDTH * HEIGHT of them, row by row */
+	void frameFinished(int[] pixels, long frame);
+}
@@ -0,0 +1,107 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+
+/** This class shows the Gameboy screen using active rendering.  Finished frames are copied
+ *  straight into the raster of a BufferedImage and drawn through a BufferStrategy by the
+ *  thread that drew them, rather than waiting for the AWT to repaint.  The screen is scaled
+ *  by a whole number so the pixels stay square.
+ */
+class GameboyCanvas extends Canvas {
+	static final long serialVersionUID = 10;
+
+	static final int WIDTH = 160;
+	static final int HEIGHT = 144;
+
+	/** Length of a Gameboy frame, 1 / 59.73 seconds */
+	static final long FRAME_NANOS = 16742706;
+
+	BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+	int[] imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+	BufferStrategy strategy;
+	int magnify;
+
+	/** Scales each frame up before it is drawn.  Null when it is just drawn larger. */
+	ScreenScaler scaler = null;
+
+	/** The time the next frame is due to be shown */
+	long nextFrameTime = 0;
+
+	public GameboyCanvas(int magnify) {
+		setIgnoreRepaint(true);
+		setMagnify(magnify);
+	}
+
+	public void setMagnify(int m) {
+		magnify = m;
+		setPreferredSize(new Dimension(WIDTH * m, HEIGHT * m));
+		setSize(WIDTH * m, HEIGHT * m);
+	}
+
+	/** Set the filter used to scale up the screen, or null for none */
+	public void setFilter(ScreenFilter filter) {
+		if (scaler != null) scaler.dispose();
+		scaler = (filter != null) ? new ScreenScaler(filter, WIDTH, HEIGHT) : null;
+	}
+
+	/** Show a frame.  Does nothing until the canvas is on the screen. */
+	public void present(int[] pixels) {
+		if (strategy == null) {
+			if (!isDisplayable()) return;
+			createBufferStrategy(2);
+			strategy = getBufferStrategy();
+		}
+		System.arraycopy(pixels, 0, imagePixels, 0, WIDTH * HEIGHT);
+		Image shown = (scaler != null) ? scaler.scale(imagePixels) : image;
+
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				g.drawImage(shown, 0, 0, WIDTH * magnify, HEIGHT * magnify, null);
+				g.dispose();
+			} while (strategy.contentsRestored());
+			strategy.show();
+		} while (strategy.contentsLost());
+	}
+
+	/** Sleep until it is time for the next frame, so that the game runs at the Gameboy's frame
+	 *  rate.  If the emulator has fallen more than a few frames behind, it starts again from now
+	 *  rather than racing to catch up. */
+	public void waitForNextFrame() {
+		long now = System.nanoTime();
+		if ((nextFrameTime == 0) || (now - nextFrameTime > FRAME_NANOS * 4)) {
+			nextFrameTime = now;
+		}
+		long wait = nextFrameTime - now;
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			} catch (InterruptedException e) {
+			}
+		}
+		nextFrameTime += FRAME_NANOS;
+	}
+}
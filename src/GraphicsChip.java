@@ -1,99 +1,147 @@
-/*
-
-JavaBoy
-                                  
-COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
-                                                                         ;;;
-This program is free software; you can redistribute it and/or modify it
-under the terms of the GNU General Public License as published by the Free
-Software Foundation; either version 2 of the License, or (at your option)
-any later version.        
-
-This program is distributed in the hope that it will be useful, but WITHOUT
-ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
-FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
-more details.
-
-
-You should have received a copy of the GNU General Public License along with
-this program; if not, write to the Free Software Foundation, Inc., 59 Temple
-Place - Suite 330, Boston, MA 02111-1307, USA.
-
-*/
-
-import java.awt.*;
-
-/** This class is the master class for implementations
-  *  of the graphics class.  A graphics implementation will subclass from this class.
-  *  It contains methods for calculating the frame rate. */
-
-abstract class GraphicsChip {
-	static final int TILE_BKG = 0;	// Background palette
-	static final int TILE_OBJ1 = 4;	// First sprite palette
-	static final int TILE_OBJ2 = 8;	// Second sprite palette
-	static final int TILE_FLIPX = 1;// Flipped horizontally
-	static final int TILE_FLIPY = 2;// Flipped vertically
-
-	GameboyPalette backgroundPalette;
-	GameboyPalette obj1Palette;
-	GameboyPalette obj2Palette;
-
-	GameboyPalette[] gbcBackground = new GameboyPalette[8];
-	GameboyPalette[] gbcSprite = new GameboyPalette[8];
-
-	boolean spritesEnabled = true;
-
-	boolean bgEnabled = true;
-	boolean winEnabled = true;
-
-	/** The image containing the Gameboy screen */
-	Image backBuffer;
-
-	/** The current frame has finished drawing */
-	boolean frameDone = false;
-	long startTime = 0;
-
-	/** Selection of one of two addresses for the BG and Window tile data areas */
-	boolean bgWindowDataSelect = true;
-
-	/** If true, 8x16 sprites are being used.  Otherwise, 8x8. */
-	boolean doubledSprites = false;
-
-	/** Selection of one of two address for the BG tile map. */
-	boolean hiBgTileMapAddress= false;
-	Dmgcpu dmgcpu;
-	Component applet;
-	int tileStart = 0;
-	//int vidRamStart = 0;
-
-	/** Create a new GraphicsChip connected to the specified CPU */
-	public GraphicsChip(Component a, Dmgcpu d) {
-		dmgcpu = d;
-
-		backgroundPalette = new GameboyPalette(0, 1, 2, 3);
-		obj1Palette = new GameboyPalette(0, 1, 2, 3);
-		obj2Palette = new GameboyPalette(0, 1, 2, 3);
-
-		for (int r = 0; r < 8; r++) {
-			gbcBackground[r] = new GameboyPalette(0, 1, 2, 3);
-			gbcSprite[r] = new GameboyPalette(0, 1, 2, 3);
-		}
-
-		backBuffer = a.createImage(160, 144);
-		applet = a;
-	} // Set the magnification for the screen
-
-	public void setMagnify() {
-		if (backBuffer != null) backBuffer.flush();
-		backBuffer = applet.createImage(160, 144);
-	}
-
-	// Clear up any allocated memory
-	//public void dispose() {
-	//	backBuffer.flush();
-	//}
-
-	abstract public void invalidateAll(int attribs);
-	abstract public boolean draw(Graphics g, int startX, int startY, Component a);
-	abstract public void notifyScanline(int line);
-}
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.awt.*;
+
+/** This class is the master class for implementations
+  *  of the graphics class.  A graphics implementation will subclass from this class.
+  *  It contains methods for calculating the frame rate. */
+
+abstract class GraphicsChip {
+	static final int TILE_BKG = 0;	// Background palette
+	static final int TILE_OBJ1 = 4;	// First sprite palette
+	static final int TILE_OBJ2 = 8;	// Second sprite palette
+	static final int TILE_FLIPX = 1;// Flipped horizontally
+	static final int TILE_FLIPY = 2;// Flipped vertically
+
+	/** Each byte with its bits spread out to every other bit, so that the two bitplanes of a tile
+	 *  row can be interleaved with a single OR.  See decodeRow(). */
+	static final int[] PLANE_SPREAD = new int[256];
+
+	/** The same as PLANE_SPREAD with the bits in reverse order, for tiles flipped horizontally */
+	static final int[] PLANE_SPREAD_FLIPPED = new int[256];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			for (int bit = 0; bit < 8; bit++) {
+				if ((b & (1 << bit)) != 0) {
+					PLANE_SPREAD[b] |= 1 << (bit * 2);
+					PLANE_SPREAD_FLIPPED[b] |= 1 << ((7 - bit) * 2);
+				}
+			}
+		}
+	}
+
+	GameboyPalette backgroundPalette;
+	GameboyPalette obj1Palette;
+	GameboyPalette obj2Palette;
+
+	GameboyPalette[] gbcBackground = new GameboyPalette[8];
+	GameboyPalette[] gbcSprite = new GameboyPalette[8];
+
+	boolean spritesEnabled = true;
+
+	boolean bgEnabled = true;
+	boolean winEnabled = true;
+
+	/** The image containing the Gameboy screen */
+	Image backBuffer;
+
+	/** Graphics context for drawing into the back buffer, created when first needed */
+	Graphics backGraphics;
+
+	/** Number of times the screen is magnified when it is drawn */
+	int magnify = 1;
+
+	/** The current frame has finished drawing */
+	boolean frameDone = false;
+	long startTime = 0;
+
+	/** Selection of one of two addresses for the BG and Window tile data areas */
+	boolean bgWindowDataSelect = true;
+
+	/** If true, 8x16 sprites are being used.  Otherwise, 8x8. */
+	boolean doubledSprites = false;
+
+	/** Selection of one of two address for the BG tile map. */
+	boolean hiBgTileMapAddress= false;
+	Dmgcpu dmgcpu;
+	Component applet;
+	int tileStart = 0;
+	//int vidRamStart = 0;
+
+	/** Create a new GraphicsChip connected to the specified CPU */
+	public GraphicsChip(Component a, Dmgcpu d) {
+		dmgcpu = d;
+
+		backgroundPalette = new GameboyPalette(0, 1, 2, 3);
+		obj1Palette = new GameboyPalette(0, 1, 2, 3);
+		obj2Palette = new GameboyPalette(0, 1, 2, 3);
+
+		for (int r = 0; r < 8; r++) {
+			gbcBackground[r] = new GameboyPalette(0, 1, 2, 3);
+			gbcSprite[r] = new GameboyPalette(0, 1, 2, 3);
+		}
+
+		if (a != null) {
+			backBuffer = a.createImage(160, 144);
+		}
+		applet = a;
+	} // Set the magnification for the screen
+
+	public void setMagnify() {
+		if (backBuffer != null) backBuffer.flush();
+		backBuffer = applet.createImage(160, 144);
+		backGraphics = null;
+	}
+
+	/** Decode a row of a tile from its two bitplane bytes.  Returns the colour numbers of all
+	 *  eight pixels, two bits each, with pixel x in bits 14 - 2x and 15 - 2x. */
+	static final int decodeRow(byte lower, byte upper, int[] spread) {
+		return spread[lower & 0xFF] | (spread[upper & 0xFF] << 1);
+	}
+
+	/** Set the number of times the screen is magnified when it is drawn */
+	public void setMagnify(int m) {
+		magnify = m;
+		setMagnify();
+	}
+
+	/** Returns the graphics context for the back buffer.  It is kept rather than getting a new one
+	 *  each time it is drawn into. */
+	public final Graphics getBackGraphics() {
+		if (backGraphics == null) {
+			backGraphics = backBuffer.getGraphics();
+		}
+		return backGraphics;
+	}
+
+	// Clear up any allocated memory
+	//public void dispose() {
+	//	backBuffer.flush();
+	//}
+
+	abstract public void invalidateAll(int attribs);
+	abstract public boolean draw(Graphics g, int startX, int startY, Component a);
+	abstract public void notifyScanline(int line);
+}
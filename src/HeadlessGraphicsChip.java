@@ -0,0 +1,49 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.awt.*;
+
+/** This is a GraphicsChip for emulators that run without a display, such as those in an
+ *  EmulatorFarm.  Nothing is drawn, so no AWT resources are used and every frame completes
+ *  as soon as the CPU reaches the end of it.
+ */
+class HeadlessGraphicsChip extends GraphicsChip {
+
+	public HeadlessGraphicsChip(Dmgcpu d) {
+		super(null, d);
+	}
+
+	public void setMagnify() {
+	}
+
+	public void invalidateAll(int attribs) {
+	}
+
+	public boolean draw(Graphics g, int startX, int startY, Component a) {
+		frameDone = true;
+		return true;
+	}
+
+	public void notifyScanline(int line) {
+	}
+}
@@ -0,0 +1,198 @@
+/*
+
+JavaBoy
+
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+/** This class spots games that are busy waiting on a register such as LY or STAT,
+ *  with loops like LDH A, (FF44); CP nn; JR NZ.  The CPU tells it about every backward
+ *  branch that is taken.  When a short loop that doesn't write to memory comes round
+ *  twice with all of the registers unchanged, it can't do anything different until
+ *  memory changes, and that only happens when the next scheduled event runs.  The
+ *  clock is moved straight on to that event.
+ */
+class IdleLoopDetector {
+	/** Longest loop body, in bytes, that will be considered */
+	static final int MAX_LOOP_LENGTH = 16;
+
+	// Values in the ROM verdict cache
+	static final byte UNKNOWN = 0;
+	static final byte POLLING = 1;
+	static final byte NOT_POLLING = 2;
+
+	Dmgcpu dmgcpu;
+
+	/** Set to false to run every iteration of polling loops */
+	boolean enabled = true;
+
+	/** Instrumentation: the number of cycles skipped, and the number of times a skip was made */
+	long cyclesSkipped = 0;
+	long skips = 0;
+
+	/** Result of checking the loop ending at each branch address in ROM, shared with other
+	 *  emulators running the same ROM.  Code in RAM can change under us so it is checked every time. */
+	byte[] romVerdict;
+
+	/** Registers seen the last time a backward branch was taken */
+	int lastBranchPc = -1;
+	long lastInstrCount;
+	int lastA, lastB, lastC, lastD, lastE, lastF, lastHl, lastSp;
+
+	public IdleLoopDetector(Dmgcpu d) {
+		dmgcpu = d;
+		romVerdict = d.rom.pollingVerdict;
+	}
+
+	/** Forget the last loop seen and the instrumentation.  The ROM verdicts are cleared by the
+	 *  ROM image. */
+	public void reset() {
+		lastBranchPc = -1;
+		cyclesSkipped = 0;
+		skips = 0;
+	}
+
+	/** Called by the CPU when the branch instruction at branchPc is about to jump back to target */
+	public final void backwardBranch(int branchPc, int target) {
+		if (!enabled) return;
+		Dmgcpu cpu = dmgcpu;
+
+		if ((branchPc != lastBranchPc) ||
+		        (cpu.instrCount - lastInstrCount > MAX_LOOP_LENGTH) ||
+		        (cpu.a != lastA) || (cpu.f != lastF) || (cpu.b != lastB) || (cpu.c != lastC) ||
+		        (cpu.d != lastD) || (cpu.e != lastE) || (cpu.hl != lastHl) || (cpu.sp != lastSp)) {
+			lastBranchPc = branchPc;
+			lastInstrCount = cpu.instrCount;
+			lastA = cpu.a;
+			lastB = cpu.b;
+			lastC = cpu.c;
+			lastD = cpu.d;
+			lastE = cpu.e;
+			lastF = cpu.f;
+			lastHl = cpu.hl;
+			lastSp = cpu.sp;
+			return;
+		}
+		lastInstrCount = cpu.instrCount;
+
+		// The loop has come round with nothing changed.  Make sure it really can't change anything.
+		if (cpu.ieDelay != -1) return;
+		if (branchPc < 0x8000) {
+			if (romVerdict[branchPc] == UNKNOWN) {
+				romVerdict[branchPc] = isPollingLoop(target, branchPc) ? POLLING : NOT_POLLING;
+			}
+			if (romVerdict[branchPc] != POLLING) return;
+		} else if (!isPollingLoop(target, branchPc)) {
+			return;
+		}
+		if (isTimerAddress(cpu.hl) || isTimerAddress((cpu.b << 8) | cpu.c) ||
+		        isTimerAddress((cpu.d << 8) | cpu.e)) {
+			return;
+		}
+
+		long next = cpu.nextEventCycle;
+		if ((next > cpu.cycles) && (next != Long.MAX_VALUE)) {
+			cyclesSkipped += next - cpu.cycles;
+			skips++;
+			cpu.cycles = next;
+		}
+	}
+
+	/** DIV and TIMA count up without any event being scheduled, so loops reading them can't be skipped */
+	static final boolean isTimerAddress(int addr) {
+		return (addr & 0xFFFC) == 0xFF04;
+	}
+
+	/** Returns true if every instruction between start and the branch at end only reads
+	 *  memory and changes registers.  Anything that writes memory, uses the stack, changes
+	 *  the interrupt state, or reads the timer stops the loop from being skipped.
+	 */
+	public final boolean isPollingLoop(int start, int end) {
+		if ((end - start > MAX_LOOP_LENGTH) || (start > end)) return false;
+		byte[] memory = dmgcpu.memory;
+
+		int addr = start;
+		while (addr <= end) {
+			int op = JavaBoy.unsign(memory[addr]);
+			int n = JavaBoy.unsign(memory[(addr + 1) & 0xFFFF]);
+			int nn = (JavaBoy.unsign(memory[(addr + 2) & 0xFFFF]) << 8) + n;
+
+			switch (op) {
+			case 0x02 :               // LD (BC), A
+			case 0x08 :               // LD (nnnn), SP
+			case 0x10 :               // STOP
+			case 0x12 :               // LD (DE), A
+			case 0x22 :               // LD (HL+), A
+			case 0x32 :               // LD (HL-), A
+			case 0x34 :               // INC (HL)
+			case 0x35 :               // DEC (HL)
+			case 0x36 :               // LD (HL), nn
+			case 0x76 :               // HALT
+			case 0xE0 :               // LDH (FFnn), A
+			case 0xE2 :               // LDH (FF00 + C), A
+			case 0xE8 :               // ADD SP, nn
+			case 0xE9 :               // JP (HL)
+			case 0xEA :               // LD (nnnn), A
+			case 0xF2 :               // LD A, (FF00 + C)
+			case 0xF3 :               // DI
+			case 0xF8 :               // LD HL, SP + nn
+			case 0xF9 :               // LD SP, HL
+			case 0xFB :               // EI
+				return false;
+			case 0xF0 :               // LDH A, (FFnn)
+				if (isTimerAddress(0xFF00 + n)) return false;
+				break;
+			case 0xFA :               // LD A, (nnnn)
+				if (isTimerAddress(nn)) return false;
+				break;
+			case 0xCB :               // Shift/bit test, only BIT n, (HL) leaves memory alone
+				if (((n & 0x07) == 6) && ((n & 0xC0) != 0x40)) return false;
+				break;
+			default :
+				if ((op >= 0x70) && (op <= 0x77)) return false;        // LD (HL), r
+				if ((op >= 0xC0) && !isJumpOrAlu(op)) return false;  // Stack, calls and unknown opcodes
+				break;
+			}
+			addr += Dmgcpu.OPCODE_LENGTHS[op];
+		}
+		return true;
+	}
+
+	/** The opcodes above 0xC0 that neither touch the stack nor change the interrupt state */
+	static final boolean isJumpOrAlu(int op) {
+		switch (op) {
+		case 0xC2 :               // JP NZ, nnnn
+		case 0xC3 :               // JP nnnn
+		case 0xCA :               // JP Z, nnnn
+		case 0xD2 :               // JP NC, nnnn
+		case 0xDA :               // JP C, nnnn
+		case 0xC6 :               // ADD A, nn
+		case 0xCE :               // ADC A, nn
+		case 0xD6 :               // SUB A, nn
+		case 0xDE :               // SBC A, nn
+		case 0xE6 :               // AND nn
+		case 0xEE :               // XOR A, nn
+		case 0xF6 :               // OR A, nn
+		case 0xFE :               // CP nn
+			return true;
+		default :
+			return false;
+		}
+	}
+}
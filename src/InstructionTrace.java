@@ -0,0 +1,279 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.*;
+
+/** This class records the registers before every instruction the CPU runs, to compare against
+ *  a trace from another emulator or from an earlier version of this one.  Each instruction
+ *  takes RECORD_SIZE bytes of a binary stream, after an eight byte header:
+ *  <pre>
+ *  u16 PC, u8 A, u8 F, u16 BC, u16 DE, u16 HL, u16 SP     (big endian)
+ *  </pre>
+ *  compare() reads a trace alongside a reference log in the usual text format, one line per
+ *  instruction such as
+ *  <pre>
+ *  A:01 F:B0 B:00 C:13 D:00 E:D8 H:01 L:4D SP:FFFE PC:0100 PCMEM:00,C3,13,02
+ *  </pre>
+ *  and stops at the first difference.  Fields can be in any order and ones that aren't
+ *  recognised, like PCMEM, are ignored.  Both are streamed, so traces of any length can be
+ *  compared.
+ *
+ *  Run with: java InstructionTrace record &lt;rom file&gt; &lt;instructions&gt; &lt;trace file&gt;
+ *       or: java InstructionTrace compare &lt;trace file&gt; &lt;reference log&gt;
+ *       or: java InstructionTrace print &lt;trace file&gt;
+ */
+class InstructionTrace {
+	static final int MAGIC = 0x4A425452;    // "JBTR"
+	static final int VERSION = 1;
+	static final int RECORD_SIZE = 12;
+
+	/** Records kept while comparing, so the ones before a difference can be shown */
+	static final int CONTEXT = 8;
+
+	static final String[] FIELDS = {"A", "F", "B", "C", "D", "E", "H", "L", "SP", "PC"};
+
+	OutputStream out;
+	byte[] buffer = new byte[RECORD_SIZE * 8192];
+	int position = 0;
+
+	/** Number of instructions recorded */
+	long count = 0;
+
+	public InstructionTrace(OutputStream out) throws IOException {
+		this.out = out;
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+	}
+
+	public InstructionTrace(String filename) throws IOException {
+		this(new FileOutputStream(filename));
+	}
+
+	/** Called by the CPU before each instruction */
+	public final void instruction(Dmgcpu cpu) {
+		byte[] b = buffer;
+		int p = position;
+		b[p] = (byte) (cpu.pc >> 8);
+		b[p + 1] = (byte) cpu.pc;
+		b[p + 2] = (byte) cpu.a;
+		b[p + 3] = (byte) cpu.f;
+		b[p + 4] = (byte) cpu.b;
+		b[p + 5] = (byte) cpu.c;
+		b[p + 6] = (byte) cpu.d;
+		b[p + 7] = (byte) cpu.e;
+		b[p + 8] = (byte) (cpu.hl >> 8);
+		b[p + 9] = (byte) cpu.hl;
+		b[p + 10] = (byte) (cpu.sp >> 8);
+		b[p + 11] = (byte) cpu.sp;
+		position = p + RECORD_SIZE;
+		count++;
+		if (position == b.length) {
+			try {
+				flush();
+			} catch (IOException e) {
+				System.out.println("Error writing trace: " + e);
+				cpu.trace = null;
+			}
+		}
+	}
+
+	public void flush() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		flush();
+		out.close();
+	}
+
+	/** Read a trace header, returning false if it isn't one */
+	static boolean readHeader(DataInputStream in) throws IOException {
+		return (in.readInt() == MAGIC) && (in.readInt() == VERSION);
+	}
+
+	/** Unpack a record into register values in the order of FIELDS */
+	static final void unpack(byte[] record, int[] values) {
+		values[0] = record[2] & 0xFF;
+		values[1] = record[3] & 0xFF;
+		for (int r = 0; r < 6; r++) {
+			values[2 + r] = record[4 + r] & 0xFF;
+		}
+		values[8] = ((record[10] & 0xFF) << 8) | (record[11] & 0xFF);
+		values[9] = ((record[0] & 0xFF) << 8) | (record[1] & 0xFF);
+	}
+
+	/** Format register values in the text format */
+	static final String format(int[] values) {
+		StringBuilder line = new StringBuilder();
+		for (int r = 0; r < FIELDS.length; r++) {
+			if (r > 0) line.append(' ');
+			line.append(FIELDS[r]).append(':').append(Profiler.hex(values[r], r < 8 ? 2 : 4));
+		}
+		return line.toString();
+	}
+
+	/** Parse a line of a reference log into values, in the order of FIELDS.  Fields that
+	 *  aren't in the line are set to -1. */
+	static final void parse(String line, int[] values) {
+		java.util.Arrays.fill(values, -1);
+		int start = 0;
+		int length = line.length();
+		while (start < length) {
+			int end = start;
+			while ((end < length) && (line.charAt(end) != ' ') && (line.charAt(end) != '\t')) {
+				end++;
+			}
+			int colon = line.indexOf(':', start);
+			if ((colon != -1) && (colon < end)) {
+				for (int r = 0; r < FIELDS.length; r++) {
+					String name = FIELDS[r];
+					if ((name.length() == colon - start) && line.regionMatches(true, start, name, 0, name.length())) {
+						values[r] = parseHex(line, colon + 1, end);
+						break;
+					}
+				}
+			}
+			start = end + 1;
+		}
+	}
+
+	/** Returns the hex number between start and end, or -1 if it isn't one */
+	static final int parseHex(String s, int start, int end) {
+		if (start == end) return -1;
+		int value = 0;
+		for (int r = start; r < end; r++) {
+			int digit = Character.digit(s.charAt(r), 16);
+			if (digit == -1) return -1;
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	/** Compare a trace against a reference log, reporting the first difference.  Returns the
+	 *  number of the first instruction that differs, counting from 0, or -1 if they match as far
+	 *  as the shorter one goes. */
+	public static long compare(InputStream trace, Reader reference, PrintStream report) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(trace, 1 << 16));
+		BufferedReader ref = new BufferedReader(reference, 1 << 16);
+		if (!readHeader(in)) {
+			throw new IOException("Not an instruction trace");
+		}
+
+		int[] ours = new int[FIELDS.length];
+		int[] theirs = new int[FIELDS.length];
+		int[] earlier = new int[FIELDS.length];
+		byte[][] context = new byte[CONTEXT][RECORD_SIZE];
+		long index = 0;
+		while (true) {
+			String line = ref.readLine();
+			if (line == null) break;
+			if (line.trim().length() == 0) continue;
+			byte[] record = context[(int) (index % CONTEXT)];
+			try {
+				in.readFully(record);
+			} catch (EOFException e) {
+				break;
+			}
+			unpack(record, ours);
+			parse(line, theirs);
+
+			for (int r = 0; r < FIELDS.length; r++) {
+				if ((theirs[r] != -1) && (theirs[r] != ours[r])) {
+					report.println("Difference in " + FIELDS[r] + " at instruction " + index + ":");
+					for (long c = Math.max(0, index - CONTEXT + 1); c < index; c++) {
+						unpack(context[(int) (c % CONTEXT)], earlier);
+						report.println("          " + format(earlier));
+					}
+					report.println("  trace:  " + format(ours));
+					report.println("  ref:    " + line.trim());
+					return index;
+				}
+			}
+			index++;
+		}
+		report.println("No differences in " + index + " instructions");
+		return -1;
+	}
+
+	/** Write a trace out in the text format */
+	public static void print(InputStream trace, PrintStream out) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(trace, 1 << 16));
+		if (!readHeader(in)) {
+			throw new IOException("Not an instruction trace");
+		}
+		byte[] record = new byte[RECORD_SIZE];
+		int[] values = new int[FIELDS.length];
+		while (true) {
+			try {
+				in.readFully(record);
+			} catch (EOFException e) {
+				break;
+			}
+			unpack(record, values);
+			out.println(format(values));
+		}
+		out.flush();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if ((args.length == 4) && args[0].equals("record")) {
+			Dmgcpu dmgcpu = new Dmgcpu(null, Dmgcpu.loadRom(args[1]));
+			InstructionTrace trace = new InstructionTrace(new BufferedOutputStream(new FileOutputStream(args[3]), 1 << 16));
+			dmgcpu.reset();
+			long instructions = Long.parseLong(args[2]);
+			dmgcpu.setTrace(trace);
+			long start = System.nanoTime();
+			while ((trace.count < instructions) && dmgcpu.runCycles(4096)) {
+			}
+			dmgcpu.setTrace(null);
+			trace.close();
+			System.out.println(trace.count + " instructions recorded in " + (System.nanoTime() - start) / 1000000 + "ms");
+		} else if ((args.length == 3) && args[0].equals("compare")) {
+			InputStream trace = new FileInputStream(args[1]);
+			Reader reference = new InputStreamReader(new FileInputStream(args[2]), "ISO-8859-1");
+			long difference;
+			try {
+				difference = compare(trace, reference, System.out);
+			} finally {
+				trace.close();
+				reference.close();
+			}
+			System.exit(difference == -1 ? 0 : 1);
+		} else if ((args.length == 2) && args[0].equals("print")) {
+			InputStream trace = new FileInputStream(args[1]);
+			try {
+				print(trace, System.out);
+			} finally {
+				trace.close();
+			}
+		} else {
+			System.out.println("Usage: java InstructionTrace record <rom file> <instructions> <trace file>");
+			System.out.println("       java InstructionTrace compare <trace file> <reference log>");
+			System.out.println("       java InstructionTrace print <trace file>");
+			System.exit(2);
+		}
+	}
+}
@@ -1,66 +1,279 @@
-/*
-JavaBoy
-                                  
-COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
-                                                                         ;;;
-This program is free software; you can redistribute it and/or modify it
-under the terms of the GNU General Public License as published by the Free
-Software Foundation; either version 2 of the License, or (at your option)
-any later version.        
-
-This program is distributed in the hope that it will be useful, but WITHOUT
-ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
-FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
-more details.
-
-
-You should have received a copy of the GNU General Public License along with
-this program; if not, write to the Free Software Foundation, Inc., 59 Temple
-Place - Suite 330, Boston, MA 02111-1307, USA.
-*/
-
-import java.awt.*;
-
-public class JavaBoy extends java.applet.Applet implements Runnable {
-	static final long serialVersionUID = 10;
-	
-	Dmgcpu dmgcpu;
-
-	static public short unsign(byte b) {
-		if (b < 0) 
-			return (short) (256 + b);
-		else
-			return b;
-	}
-
-	static public short unsign(short b) {
-		if (b < 0)
-			return (short) (256 + b);
-		else
-			return b;
-	}
-
-	/** When running as an applet, updates the screen when necessary */
-	public void paint(Graphics g) {
-		dmgcpu.graphicsChip.draw(g, 0, 0, this);
-	}
-
-	public void drawNextFrame() {
-		repaint();
-	}
-
-	public void start() {
-		Thread p = new Thread(this);
-		dmgcpu = new Dmgcpu(this);
-		dmgcpu.graphicsChip.setMagnify();
-		p.start();
-	}
-
-	public void run() {
-		do {
-			dmgcpu.reset();
-			dmgcpu.execute();
-		} while (true);
-	}
-
-}
+/*
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+*/
+
+import java.awt.*;
+import java.awt.event.*;
+
+public class JavaBoy extends java.applet.Applet implements Runnable, KeyListener {
+	static final long serialVersionUID = 10;
+	
+	Dmgcpu dmgcpu;
+
+	/** The screen, when frames are shown by active rendering rather than by paint() */
+	GameboyCanvas canvas = null;
+
+	/** Records the frames shown, when the CAPTURE parameter is given */
+	VideoCapture capture = null;
+
+	/** Plays against another machine, when the NETPLAYPEER parameter is given */
+	Netplay netplay = null;
+
+	/** Runs frames ahead to cut input latency, when the RUNAHEAD parameter is given */
+	RunAhead runAhead = null;
+
+	/** The buttons held down on the keyboard.  The CPU picks them up at the end of each frame. */
+	volatile int keyButtons = 0;
+
+	static public short unsign(byte b) {
+		if (b < 0) 
+			return (short) (256 + b);
+		else
+			return b;
+	}
+
+	static public short unsign(short b) {
+		if (b < 0)
+			return (short) (256 + b);
+		else
+			return b;
+	}
+
+	/** When running as an applet, updates the screen when necessary */
+	public void paint(Graphics g) {
+		if (canvas == null) {
+			dmgcpu.graphicsChip.draw(g, 0, 0, this);
+		}
+	}
+
+	/** Called by the CPU at the end of each frame that is drawn.  With active rendering the
+	 *  render thread has already shown it, so this just keeps the game to the right speed. */
+	public void drawNextFrame() {
+		if ((netplay == null) && (runAhead == null)) {
+			dmgcpu.setButtons(keyButtons);
+		}
+		if (canvas != null) {
+			if (!dmgcpu.fastForward) {
+				canvas.waitForNextFrame();
+			}
+			dmgcpu.graphicsChip.frameDone = true;
+		} else {
+			repaint();
+		}
+	}
+
+	public void start() {
+		Thread p = new Thread(this);
+		dmgcpu = new Dmgcpu(this);
+
+		// MAGNIFY is the number of times the screen is scaled up
+		int magnify = 1;
+		if (getParameter("MAGNIFY") != null) {
+			magnify = Integer.parseInt(getParameter("MAGNIFY"));
+		}
+		dmgcpu.graphicsChip.setMagnify(magnify);
+
+		// ACTIVERENDERING=false shows frames through paint() instead
+		if ((dmgcpu.graphicsChip instanceof ScanlineGraphicsChip) &&
+		        !"false".equalsIgnoreCase(getParameter("ACTIVERENDERING"))) {
+			canvas = new GameboyCanvas(magnify);
+			setLayout(new BorderLayout());
+			add(canvas, BorderLayout.CENTER);
+			validate();
+			((ScanlineGraphicsChip) dmgcpu.graphicsChip).canvas = canvas;
+
+			// FILTER is one of nearest, scale2x, scale3x or hq2x
+			if (getParameter("FILTER") != null) {
+				canvas.setFilter(ScreenFilter.forName(getParameter("FILTER"), magnify));
+			}
+		}
+
+		// SHAREDFRAMES is a file to publish each frame into, for other programs to read
+		if ((dmgcpu.graphicsChip instanceof ScanlineGraphicsChip) && (getParameter("SHAREDFRAMES") != null)) {
+			try {
+				((ScanlineGraphicsChip) dmgcpu.graphicsChip).addSink(new SharedFrameBuffer(getParameter("SHAREDFRAMES")));
+			} catch (java.io.IOException e) {
+				System.out.println("Can't share frames in " + getParameter("SHAREDFRAMES") + ": " + e);
+			}
+		}
+
+		// CAPTURE is a file to record video into.  The extension picks the format: .y4m, .png, .apng or raw RGB.
+		if ((dmgcpu.graphicsChip instanceof ScanlineGraphicsChip) && (getParameter("CAPTURE") != null)) {
+			try {
+				capture = new VideoCapture(getParameter("CAPTURE"), VideoCapture.formatFor(getParameter("CAPTURE")));
+				((ScanlineGraphicsChip) dmgcpu.graphicsChip).addSink(capture);
+			} catch (java.io.IOException e) {
+				System.out.println("Can't capture video to " + getParameter("CAPTURE") + ": " + e);
+			}
+		}
+
+		// SPECTATORPORT is a port on this machine to serve the screen to web browsers from
+		if ((dmgcpu.graphicsChip instanceof ScanlineGraphicsChip) && (getParameter("SPECTATORPORT") != null)) {
+			try {
+				SpectatorServer server = new SpectatorServer(Integer.parseInt(getParameter("SPECTATORPORT")));
+				server.addStream("javaboy", (ScanlineGraphicsChip) dmgcpu.graphicsChip);
+			} catch (java.io.IOException e) {
+				System.out.println("Can't start spectator server: " + e);
+			}
+		}
+
+		// NETPLAYPEER is the host:port of another machine to play with, and NETPLAYPORT is the port
+		// to use here.  NETPLAYLATENCY adds a delay in milliseconds, for testing.
+		if (getParameter("NETPLAYPEER") != null) {
+			String peer = getParameter("NETPLAYPEER");
+			int colon = peer.lastIndexOf(':');
+			try {
+				netplay = new Netplay(dmgcpu, Integer.parseInt(getParameter("NETPLAYPORT")),
+				                      new java.net.InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+				if (getParameter("NETPLAYLATENCY") != null) {
+					netplay.setLatency(Integer.parseInt(getParameter("NETPLAYLATENCY")));
+				}
+			} catch (java.io.IOException e) {
+				System.out.println("Can't start netplay: " + e);
+			}
+		}
+
+		// RUNAHEAD is the number of frames to run ahead of the one shown, to cut input latency
+		if ((netplay == null) && (getParameter("RUNAHEAD") != null)) {
+			runAhead = new RunAhead(dmgcpu, Integer.parseInt(getParameter("RUNAHEAD")));
+		}
+
+		// FASTFORWARD is the number of frames to run for each one drawn, or "auto"
+		String fastForward = getParameter("FASTFORWARD");
+		if (fastForward != null) {
+			if (fastForward.equalsIgnoreCase("auto")) {
+				dmgcpu.setFastForward(true, 0);
+			} else {
+				dmgcpu.setFastForward(true, Integer.parseInt(fastForward));
+			}
+		}
+		addKeyListener(this);
+		if (canvas != null) {
+			canvas.addKeyListener(this);
+		}
+		p.start();
+	}
+
+	/** Finish the video file being captured, if there is one, and report how much running ahead saved */
+	public void stop() {
+		if (runAhead != null) {
+			System.out.println("Run ahead " + runAhead.frames + " frames, saving " + runAhead.latencySavedMillis() +
+			                   "ms: the screen responded to buttons after " + runAhead.averageResponseFrames() + " frames, " +
+			                   runAhead.averageResponseMillis() + "ms");
+		}
+		if (capture != null) {
+			try {
+				capture.close();
+			} catch (java.io.IOException e) {
+				System.out.println("Error writing video: " + e);
+			}
+		}
+	}
+
+	public void run() {
+		SerialLink link = openLink();
+		do {
+			dmgcpu.reset();
+			if (link != null) {
+				try {
+					while (link.runFrames(1)) {
+					}
+				} catch (java.io.IOException e) {
+					System.out.println("Link cable disconnected: " + e);
+					dmgcpu.serialLink = null;
+					link = null;
+				}
+			} else if (netplay != null) {
+				runNetplay();
+			} else if (runAhead != null) {
+				while (runAhead.runFrame(keyButtons)) {
+				}
+			} else {
+				dmgcpu.execute();
+			}
+		} while (true);
+	}
+
+	/** Plug in a link cable to another copy of JavaBoy.  LINKLISTEN is a port to wait on for
+	 *  it to connect, or LINKPEER is the host:port of one that is waiting. */
+	SerialLink openLink() {
+		try {
+			java.net.Socket socket;
+			if (getParameter("LINKLISTEN") != null) {
+				java.net.ServerSocket server = new java.net.ServerSocket(Integer.parseInt(getParameter("LINKLISTEN")));
+				socket = server.accept();
+				server.close();
+			} else if (getParameter("LINKPEER") != null) {
+				String peer = getParameter("LINKPEER");
+				int colon = peer.lastIndexOf(':');
+				socket = new java.net.Socket(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)));
+			} else {
+				return null;
+			}
+			return SerialLink.connect(dmgcpu, socket, SerialLink.DEFAULT_WINDOW);
+		} catch (java.io.IOException e) {
+			System.out.println("Can't connect the link cable: " + e);
+			return null;
+		}
+	}
+
+	/** Run frames one at a time through the netplay session, waiting when the other side is behind */
+	void runNetplay() {
+		try {
+			while (true) {
+				if (!netplay.advance(keyButtons)) {
+					if (dmgcpu.unknownOpcode != -1) return;    // Stopped part way through a frame
+					Thread.sleep(1);
+				}
+			}
+		} catch (Exception e) {
+			System.out.println("Netplay stopped: " + e);
+			netplay = null;
+		}
+	}
+
+	/** Returns the button for a key: the arrows, Z for A, X for B, Enter for Start and
+	 *  Backspace for Select */
+	static int buttonFor(int keyCode) {
+		switch (keyCode) {
+		case KeyEvent.VK_RIGHT :      return Dmgcpu.BUTTON_RIGHT;
+		case KeyEvent.VK_LEFT :       return Dmgcpu.BUTTON_LEFT;
+		case KeyEvent.VK_UP :         return Dmgcpu.BUTTON_UP;
+		case KeyEvent.VK_DOWN :       return Dmgcpu.BUTTON_DOWN;
+		case KeyEvent.VK_Z :          return Dmgcpu.BUTTON_A;
+		case KeyEvent.VK_X :          return Dmgcpu.BUTTON_B;
+		case KeyEvent.VK_BACK_SPACE : return Dmgcpu.BUTTON_SELECT;
+		case KeyEvent.VK_ENTER :      return Dmgcpu.BUTTON_START;
+		default :                     return 0;
+		}
+	}
+
+	public void keyPressed(KeyEvent e) {
+		keyButtons |= buttonFor(e.getKeyCode());
+	}
+
+	public void keyReleased(KeyEvent e) {
+		keyButtons &= ~buttonFor(e.getKeyCode());
+	}
+
+	public void keyTyped(KeyEvent e) {
+	}
+
+}
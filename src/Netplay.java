@@ -0,0 +1,377 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/** This class plays a game over the network with rollback, the way GGPO does.  Both
+ *  machines run the same ROM and each frame the joypad is the buttons held by both players
+ *  together.  Each side sends its own buttons for every frame as UDP packets and carries on
+ *  without waiting for the other side's, guessing that they haven't changed.  When the real
+ *  buttons arrive and the guess was wrong, the state saved at the start of that frame is
+ *  loaded and the frames since are run again with the display off.
+ *
+ *  A side never gets more than MAX_ROLLBACK frames ahead of the last buttons it has from the
+ *  other: advance() returns false instead, and should be called again.  The interpreter is
+ *  used, because the recompiler can stop a frame a few instructions later depending on what
+ *  it has compiled, and both sides must reach exactly the same state.  For the same reason
+ *  the idle loop detector starts afresh at every frame.
+ *
+ *  Packets hold the number of the first frame, how far the sender has received, and a byte of
+ *  buttons for each frame the other side hasn't acknowledged, so a lost packet is made up for
+ *  by the next one.  A latency in milliseconds can be added to every packet sent, for testing
+ *  on one machine.
+ */
+class Netplay implements Runnable {
+	/** The furthest back a wrong guess can be corrected */
+	static final int MAX_ROLLBACK = 8;
+
+	/** Frames of buttons kept for each player */
+	static final int HISTORY = 256;
+
+	static final int MAGIC = 0x4A424E50;    // "JBNP"
+
+	Dmgcpu dmgcpu;
+	DatagramChannel channel;
+	SocketAddress peer;
+
+	/** The next frame to run */
+	long frame = 0;
+
+	/** Buttons for each frame, and whether the other side's are known or guessed */
+	int[] localButtons = new int[HISTORY];
+	int[] remoteButtons = new int[HISTORY];
+	boolean[] remoteKnown = new boolean[HISTORY];
+
+	/** The other side's buttons used when each frame was run */
+	int[] remoteUsed = new int[HISTORY];
+
+	/** The other side's buttons are known for every frame before this */
+	long remoteConfirmed = 0;
+
+	/** The other side has our buttons for every frame before this */
+	long peerConfirmed = 0;
+
+	/** The earliest frame that was run with a wrong guess, or Long.MAX_VALUE */
+	long rollbackFrom = Long.MAX_VALUE;
+
+	/** The state at the start of each of the last few frames */
+	ByteBuffer[] states = new ByteBuffer[MAX_ROLLBACK + 2];
+
+	ByteBuffer packet = ByteBuffer.allocate(16 + HISTORY);
+	ByteBuffer received = ByteBuffer.allocate(16 + HISTORY);
+
+	/** Added to every packet sent, to test how well rollback hides network delays */
+	int latencyMillis = 0;
+	DelayQueue<DelayedPacket> delayed = new DelayQueue<DelayedPacket>();
+	Thread sendThread = null;
+
+	// Counts, to see how much rolling back is being done
+	long rollbacks = 0;
+	long framesRerun = 0;
+	long stalls = 0;
+	long longestRollbackNanos = 0;
+	int deepestRollback = 0;
+
+	/** Start a session on the given local port, playing with the machine at peer */
+	public Netplay(Dmgcpu dmgcpu, int localPort, SocketAddress peer) throws IOException {
+		this.dmgcpu = dmgcpu;
+		this.peer = peer;
+		channel = DatagramChannel.open();
+		channel.socket().bind(new InetSocketAddress(localPort));
+		channel.configureBlocking(false);
+		for (int r = 0; r < states.length; r++) {
+			states[r] = ByteBuffer.allocate(SaveState.SIZE);
+		}
+		dmgcpu.setRecompilerEnabled(false);
+	}
+
+	/** Delay every packet sent by the given number of milliseconds */
+	public void setLatency(int millis) {
+		latencyMillis = millis;
+		if ((millis > 0) && (sendThread == null)) {
+			sendThread = new Thread(this, "Netplay latency");
+			sendThread.setDaemon(true);
+			sendThread.start();
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		if (sendThread != null) {
+			sendThread.interrupt();
+		}
+	}
+
+	/** Run the next frame with the buttons held on this side.  Returns false without running
+	 *  anything if this side is too far ahead of the other, or the emulator stopped. */
+	public boolean advance(int buttons) throws IOException {
+		receive();
+		if (rollbackFrom != Long.MAX_VALUE) {
+			rollback();
+		}
+		if (frame - remoteConfirmed >= MAX_ROLLBACK) {
+			stalls++;
+			send();
+			return false;
+		}
+
+		localButtons[(int) (frame % HISTORY)] = buttons;
+		send();
+		return runFrame(true);
+	}
+
+	/** Wait for the other side's buttons for every frame that has been run, and run again any
+	 *  that were guessed wrong, so that both sides are in the same state.  Gives up and returns
+	 *  false after timeoutMillis.  The session should stay open for a while afterwards, in
+	 *  case the other side is still waiting for packets. */
+	public boolean synchronize(long timeoutMillis) throws IOException, InterruptedException {
+		long end = System.currentTimeMillis() + timeoutMillis;
+		while (remoteConfirmed < frame) {
+			if (System.currentTimeMillis() > end) return false;
+			send();
+			Thread.sleep(1);
+			receive();
+		}
+		if (rollbackFrom != Long.MAX_VALUE) {
+			rollback();
+		}
+		send();
+		return true;
+	}
+
+	/** Run the next frame, saving the state first */
+	final boolean runFrame(boolean render) {
+		int slot = (int) (frame % HISTORY);
+		int remote;
+		if (frame < remoteConfirmed) {
+			remote = remoteButtons[slot];
+		} else if (remoteConfirmed > 0) {
+			remote = remoteButtons[(int) ((remoteConfirmed - 1) % HISTORY)];
+		} else {
+			remote = 0;
+		}
+		remoteUsed[slot] = remote;
+
+		dmgcpu.idleLoops.lastBranchPc = -1;
+		SaveState.save(dmgcpu, states[(int) (frame % states.length)]);
+		dmgcpu.setButtons(localButtons[slot] | remote);
+		dmgcpu.setRendering(render);
+		boolean completed = dmgcpu.runFrames(1);
+		dmgcpu.setRendering(true);
+		if (completed) {
+			frame++;
+		}
+		return completed;
+	}
+
+	/** Go back to the first frame that was run with the wrong buttons and run forward again */
+	final void rollback() {
+		long start = System.nanoTime();
+		long target = frame;
+		int depth = (int) (target - rollbackFrom);
+		frame = rollbackFrom;
+		rollbackFrom = Long.MAX_VALUE;
+		SaveState.load(dmgcpu, states[(int) (frame % states.length)]);
+		while (frame < target) {
+			if (!runFrame(false)) break;
+		}
+
+		long time = System.nanoTime() - start;
+		rollbacks++;
+		framesRerun += depth;
+		longestRollbackNanos = Math.max(longestRollbackNanos, time);
+		deepestRollback = Math.max(deepestRollback, depth);
+	}
+
+	/** Send our buttons for every frame the other side hasn't acknowledged */
+	final void send() throws IOException {
+		long first = Math.max(peerConfirmed, frame + 1 - HISTORY);
+		long last = Math.min(frame + 1, first + HISTORY);
+		if (frame < peerConfirmed) return;
+		packet.clear();
+		packet.putInt(MAGIC);
+		packet.putLong(first);
+		packet.putInt((int) (remoteConfirmed - first));
+		for (long r = first; r < last; r++) {
+			packet.put((byte) localButtons[(int) (r % HISTORY)]);
+		}
+		packet.flip();
+		if (latencyMillis > 0) {
+			ByteBuffer copy = ByteBuffer.allocate(packet.remaining());
+			copy.put(packet);
+			copy.flip();
+			delayed.add(new DelayedPacket(copy, System.nanoTime() + latencyMillis * 1000000L));
+		} else {
+			channel.send(packet, peer);
+		}
+	}
+
+	/** Take in every packet that has arrived */
+	final void receive() throws IOException {
+		while (true) {
+			received.clear();
+			if (channel.receive(received) == null) return;
+			received.flip();
+			if ((received.remaining() < 16) || (received.getInt() != MAGIC)) continue;
+			long first = received.getLong();
+			long acknowledged = first + received.getInt();
+			if (acknowledged > peerConfirmed) {
+				peerConfirmed = acknowledged;
+			}
+
+			for (long r = first; received.hasRemaining(); r++) {
+				int buttons = received.get() & 0xFF;
+				if ((r < remoteConfirmed) || (r >= remoteConfirmed + HISTORY - MAX_ROLLBACK)) continue;
+				int slot = (int) (r % HISTORY);
+				remoteButtons[slot] = buttons;
+				remoteKnown[slot] = true;
+			}
+			// The buttons count as confirmed once every frame up to them has arrived
+			while (remoteKnown[(int) (remoteConfirmed % HISTORY)]) {
+				int slot = (int) (remoteConfirmed % HISTORY);
+				remoteKnown[slot] = false;
+				if ((remoteConfirmed < frame) && (remoteUsed[slot] != remoteButtons[slot])) {
+					rollbackFrom = Math.min(rollbackFrom, remoteConfirmed);
+				}
+				remoteConfirmed++;
+			}
+		}
+	}
+
+	/** Play a game against another copy of this on the same machine, with made up button
+	 *  presses.  Both sides are run in this process, at normal speed, with the given latency
+	 *  added to each packet.  Shows how much rolling back was done and checks that both sides
+	 *  finish in the same state.
+	 *
+	 *  Run with: java Netplay [rom file] [latency ms] [frames]
+	 */
+	public static void main(String[] args) throws Exception {
+		final byte[] rom = Dmgcpu.loadRom(args.length > 0 ? args[0] : "../roms/rom.gb");
+		final int latency = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		final int frames = args.length > 2 ? Integer.parseInt(args[2]) : 600;
+		final int[] ports = {7650, 7651};
+		final Netplay[] sides = new Netplay[2];
+		final ByteBuffer[] finalStates = new ByteBuffer[2];
+
+		Thread[] threads = new Thread[2];
+		for (int r = 0; r < 2; r++) {
+			final int player = r;
+			Dmgcpu dmgcpu = new Dmgcpu(null, rom);
+			dmgcpu.reset();
+			sides[player] = new Netplay(dmgcpu, ports[player], new InetSocketAddress("127.0.0.1", ports[1 - player]));
+			sides[player].setLatency(latency);
+			threads[player] = new Thread("Player " + (player + 1)) {
+				public void run() {
+					try {
+						Netplay side = sides[player];
+						java.util.Random random = new java.util.Random(player + 1);
+						int buttons = 0;
+						long next = System.nanoTime();
+						while (side.frame < frames) {
+							if (random.nextInt(20) == 0) {
+								buttons = random.nextInt(0x100) & (player == 0 ? 0x0F : 0xF0);
+							}
+							if (side.advance(buttons)) {
+								next += GameboyCanvas.FRAME_NANOS;
+							}
+							long wait = next - System.nanoTime();
+							if (wait > 0) {
+								Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+							}
+						}
+						if (!side.synchronize(5000)) {
+							System.out.println(getName() + " timed out waiting for the other side");
+						}
+						finalStates[player] = ByteBuffer.allocate(SaveState.SIZE);
+						SaveState.save(side.dmgcpu, finalStates[player]);
+						Thread.sleep(500);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[player].start();
+		}
+
+		for (int r = 0; r < 2; r++) {
+			threads[r].join();
+			Netplay side = sides[r];
+			System.out.println("Player " + (r + 1) + ": " + side.frame + " frames, " + side.rollbacks + " rollbacks, " +
+			                   side.framesRerun + " frames run again, " + side.stalls + " stalls, deepest " + side.deepestRollback +
+			                   " frames, longest " + (side.longestRollbackNanos / 1000) + "us");
+			side.close();
+		}
+		boolean same = (finalStates[0] != null) && finalStates[0].equals(finalStates[1]);
+		System.out.println(same ? "Both sides finished in the same state" : "The two sides are out of sync");
+
+		// Time the worst case: rolling back the full MAX_ROLLBACK frames
+		Netplay side = sides[0];
+		side.rollbackFrom = side.frame - MAX_ROLLBACK;
+		side.rollback();
+		long start = System.nanoTime();
+		for (int r = 0; r < 100; r++) {
+			side.rollbackFrom = side.frame - MAX_ROLLBACK;
+			side.rollback();
+		}
+		System.out.println("Rolling back " + MAX_ROLLBACK + " frames takes " + (System.nanoTime() - start) / 100000 + "us");
+		System.exit(same ? 0 : 1);
+	}
+
+	/** Sends packets once their delay is up, when a latency is set */
+	public void run() {
+		try {
+			while (true) {
+				DelayedPacket p = delayed.take();
+				channel.send(p.data, peer);
+			}
+		} catch (InterruptedException e) {
+		} catch (IOException e) {
+		}
+	}
+
+	static class DelayedPacket implements Delayed {
+		ByteBuffer data;
+		long due;
+
+		DelayedPacket(ByteBuffer data, long due) {
+			this.data = data;
+			this.due = due;
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		public int compareTo(Delayed other) {
+			long difference = due - ((DelayedPacket) other).due;
+			return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+
+JavaBoy
+
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.*;
+
+/** This class counts what the CPU is doing, to show where time goes and which code is
+ *  worth compiling.  It keeps an execution count for every opcode (with the 0xCB prefixed
+ *  ones counted separately), samples the PC every SAMPLE_INTERVAL instructions, and counts
+ *  reads and writes to each region of the memory map.  The CPU only calls it when it is
+ *  switched on with Dmgcpu.setProfilerEnabled(), so it costs nothing otherwise.
+ */
+class Profiler {
+	/** Number of instructions between each PC sample */
+	static final int SAMPLE_INTERVAL = 64;
+
+	/** Size of the memory banks the PC samples are grouped into */
+	static final int BANK_SIZE = 0x4000;
+
+	// Memory regions
+	static final int REGION_ROM0 =   0;  // 0000 - 3FFF
+	static final int REGION_ROMX =   1;  // 4000 - 7FFF
+	static final int REGION_VRAM =   2;  // 8000 - 9FFF
+	static final int REGION_CRAM =   3;  // A000 - BFFF
+	static final int REGION_WRAM =   4;  // C000 - DFFF
+	static final int REGION_ECHO =   5;  // E000 - FDFF
+	static final int REGION_OAM =    6;  // FE00 - FEFF
+	static final int REGION_IO =     7;  // FF00 - FF7F
+	static final int REGION_HRAM =   8;  // FF80 - FFFE
+	static final int REGION_IE =     9;  // FFFF
+	static final int NUM_REGIONS =  10;
+
+	static final String[] REGION_NAMES = {"ROM0", "ROMX", "VRAM", "CRAM", "WRAM", "ECHO", "OAM", "IO", "HRAM", "IE"};
+
+	/** Opcodes that the CPU doesn't implement.  Running one of these stops the emulator. */
+	static final int[] UNIMPLEMENTED = {0xD3, 0xDB, 0xDD, 0xE3, 0xE4, 0xEB, 0xEC, 0xED, 0xF4, 0xFC, 0xFD};
+
+	/** Executions of each opcode.  Entries 0x100 - 0x1FF are the opcodes following 0xCB. */
+	long[] opcodeCounts = new long[0x200];
+
+	/** Number of PC samples taken at each address */
+	int[] pcSamples = new int[0x10000];
+	int sampleCountdown = SAMPLE_INTERVAL;
+
+	long[] regionReads = new long[NUM_REGIONS];
+	long[] regionWrites = new long[NUM_REGIONS];
+
+	/** Clear all of the counters */
+	public void reset() {
+		java.util.Arrays.fill(opcodeCounts, 0);
+		java.util.Arrays.fill(pcSamples, 0);
+		java.util.Arrays.fill(regionReads, 0);
+		java.util.Arrays.fill(regionWrites, 0);
+		sampleCountdown = SAMPLE_INTERVAL;
+	}
+
+	/** Called by the CPU before it executes the decoded instruction inst at pc */
+	public final void instruction(int pc, int inst) {
+		int op = inst & 0xFF;
+		if (op == 0xCB) {
+			opcodeCounts[0x100 + ((inst >> 8) & 0xFF)]++;
+		} else {
+			opcodeCounts[op]++;
+		}
+		if (--sampleCountdown == 0) {
+			pcSamples[pc]++;
+			sampleCountdown = SAMPLE_INTERVAL;
+		}
+	}
+
+	public final void memoryRead(int addr) {
+		regionReads[regionOf(addr)]++;
+	}
+
+	public final void memoryWrite(int addr) {
+		regionWrites[regionOf(addr)]++;
+	}
+
+	/** Returns the region of the memory map that the address is in */
+	static final int regionOf(int addr) {
+		if (addr < 0x8000) return addr >> 14;
+		if (addr < 0xE000) return (addr >> 13) - 2;
+		if (addr < 0xFE00) return REGION_ECHO;
+		if (addr < 0xFF00) return REGION_OAM;
+		if (addr < 0xFF80) return REGION_IO;
+		if (addr < 0xFFFF) return REGION_HRAM;
+		return REGION_IE;
+	}
+
+	static final boolean isUnimplemented(int op) {
+		for (int r = 0; r < UNIMPLEMENTED.length; r++) {
+			if (UNIMPLEMENTED[r] == op) return true;
+		}
+		return false;
+	}
+
+	/** Write the counters out as CSV.  There is a line for each opcode that was executed,
+	 *  each address that was sampled, and each memory region, marked by the first field:
+	 *  <pre>
+	 *  op,&lt;opcode&gt;,&lt;count&gt;,&lt;unimplemented&gt;
+	 *  pc,&lt;bank&gt;,&lt;address&gt;,&lt;samples&gt;
+	 *  mem,&lt;region&gt;,&lt;reads&gt;,&lt;writes&gt;
+	 *  </pre>
+	 *  CB prefixed opcodes are written as CBnn.  The bank is the address divided by BANK_SIZE.
+	 */
+	public void writeCsv(Writer out) throws IOException {
+		PrintWriter p = new PrintWriter(out);
+		p.println("type,key,value,extra");
+		for (int r = 0; r < 0x200; r++) {
+			if (opcodeCounts[r] != 0) {
+				String name = r < 0x100 ? hex(r, 2) : "CB" + hex(r - 0x100, 2);
+				p.println("op," + name + "," + opcodeCounts[r] + "," + (r < 0x100 && isUnimplemented(r)));
+			}
+		}
+		for (int r = 0; r < 0x10000; r++) {
+			if (pcSamples[r] != 0) {
+				p.println("pc," + (r / BANK_SIZE) + "," + hex(r, 4) + "," + pcSamples[r]);
+			}
+		}
+		for (int r = 0; r < NUM_REGIONS; r++) {
+			p.println("mem," + REGION_NAMES[r] + "," + regionReads[r] + "," + regionWrites[r]);
+		}
+		p.flush();
+	}
+
+	/** Write the counters to a file, in CSV */
+	public void writeCsv(String filename) throws IOException {
+		Writer w = new BufferedWriter(new FileWriter(filename));
+		try {
+			writeCsv(w);
+		} finally {
+			w.close();
+		}
+	}
+
+	static final String hex(int value, int digits) {
+		String s = Integer.toHexString(value).toUpperCase();
+		while (s.length() < digits) {
+			s = "0" + s;
+		}
+		return s;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+
+JavaBoy
+
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+/** This class emulates the divider and the programmable timer (DIV, TIMA, TMA and TAC).
+ *  Neither register is ticked by the CPU loop.  Both are worked out from the CPU cycle
+ *  count when they are read, and the only work done while the timer runs is a single
+ *  scheduled event for the cycle on which TIMA overflows.
+ */
+class ProgrammableTimer {
+	/** Number of CPU cycles per TIMA increment for each TAC clock select value */
+	static final int[] TAC_PERIODS = {1024, 16, 64, 256};
+
+	Dmgcpu dmgcpu;
+
+	/** The cycle on which the divider was last reset.  DIV is the upper byte of the 16-bit
+	 *  counter that has been running since then. */
+	long divBase;
+
+	/** TIMA held timaValue on cycle timaBase.  Increments since then are derived from the divider. */
+	long timaBase;
+	int timaValue;
+
+	int tma;
+	int tac;
+
+	public ProgrammableTimer(Dmgcpu d) {
+		dmgcpu = d;
+	}
+
+	/** Set the timer to it's power on state */
+	public void reset() {
+		divBase = dmgcpu.cycles;
+		timaBase = dmgcpu.cycles;
+		timaValue = 0;
+		tma = 0;
+		tac = 0;
+		reschedule();
+	}
+
+	public final boolean enabled() {
+		return (tac & 0x04) != 0;
+	}
+
+	/** Number of TIMA clock edges between the two cycle counts.  These happen whenever the
+	 *  divider counter passes a multiple of the selected period. */
+	final long ticksBetween(long from, long to) {
+		int period = TAC_PERIODS[tac & 0x03];
+		return ((to - divBase) / period) - ((from - divBase) / period);
+	}
+
+	/** Bring TIMA up to date with the current cycle count, handling any overflows that
+	 *  have happened since it was last brought up to date */
+	public final void sync() {
+		long now = dmgcpu.cycles;
+		if (enabled()) {
+			long value = timaValue + ticksBetween(timaBase, now);
+			while (value > 0xFF) {
+				value = value - 0x100 + tma;
+				dmgcpu.triggerInterrupt(dmgcpu.INT_TIMA);
+			}
+			timaValue = (int) value;
+		}
+		timaBase = now;
+	}
+
+	/** The cycle on which TIMA will next overflow, or Long.MAX_VALUE if the timer is stopped */
+	public final long nextOverflow() {
+		if (!enabled()) return Long.MAX_VALUE;
+		int period = TAC_PERIODS[tac & 0x03];
+		return divBase + (((timaBase - divBase) / period) + (0x100 - timaValue)) * period;
+	}
+
+	/** Tell the CPU when the next overflow is due */
+	final void reschedule() {
+		dmgcpu.schedule(Dmgcpu.EVENT_TIMER, nextOverflow());
+	}
+
+	/** Called by the CPU when the scheduled overflow cycle has been reached */
+	public final void overflowEvent() {
+		sync();
+		reschedule();
+	}
+
+	/** Read one of the timer registers FF04 - FF07 */
+	public final int read(int addr) {
+		switch (addr) {
+		case 0xFF04 :           // DIV
+			return (int) ((dmgcpu.cycles - divBase) >> 8) & 0xFF;
+		case 0xFF05 :           // TIMA
+			sync();
+			return timaValue;
+		case 0xFF06 :           // TMA
+			return tma;
+		default :               // TAC
+			return tac | 0xF8;
+		}
+	}
+
+	/** Write to one of the timer registers FF04 - FF07 */
+	public final void write(int addr, int data) {
+		sync();
+		switch (addr) {
+		case 0xFF04 :           // DIV, any write resets it
+			divBase = dmgcpu.cycles;
+			break;
+		case 0xFF05 :           // TIMA
+			timaValue = data & 0xFF;
+			break;
+		case 0xFF06 :           // TMA
+			tma = data & 0xFF;
+			break;
+		case 0xFF07 :           // TAC
+			tac = data & 0x07;
+			break;
+		}
+		reschedule();
+	}
+}
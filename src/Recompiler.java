@@ -0,0 +1,1095 @@
+/*
+
+JavaBoy
+
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/** This class translates frequently run blocks of Gameboy code into Java bytecode.
+ *  The CPU asks it for a block at each address it is about to interpret.  Once an address
+ *  has been asked for COMPILE_THRESHOLD times, the straight-line code from there up to the
+ *  next jump, call or return is turned into a subclass of CompiledBlock and loaded, and
+ *  from then on the CPU runs that instead of interpreting the instructions one by one.
+ *
+ *  Blocks stop before any instruction that isn't translated (HALT, STOP, DI, EI, RETI, RST,
+ *  DAA and unknown opcodes), and those are left to the interpreter.  Blocks are only built
+ *  from ROM, work RAM and high RAM.  Writes to a RAM page that holds compiled code throw away
+ *  the blocks built from that page (see Dmgcpu.codeWritten()).
+ */
+class Recompiler {
+	/** Number of times an address must be reached before it is compiled */
+	static final int COMPILE_THRESHOLD = 64;
+
+	/** Longest block, in instructions */
+	static final int MAX_BLOCK_INSTRUCTIONS = 32;
+
+	/** Longest block, in bytes */
+	static final int MAX_BLOCK_LENGTH = MAX_BLOCK_INSTRUCTIONS * 3;
+
+	/** Number of blocks defined by one class loader before all compiled code is thrown away
+	 *  and a new loader started.  Classes can only be unloaded with their loader, so without
+	 *  this, code in RAM that keeps being rewritten and recompiled would use more and more
+	 *  memory. */
+	static final int MAX_LOADER_CLASSES = 4096;
+
+	/** Marks an address where compiling has already been tried and failed */
+	static final int NOT_COMPILABLE = Integer.MIN_VALUE;
+
+	// Local variable slots used by the generated code
+	static final int L_THIS = 0, L_A = 1, L_B = 2, L_C = 3, L_D = 4, L_E = 5, L_F = 6, L_HL = 7,
+	                 L_SP = 8, L_TMP = 9;
+	static final String[] REGISTER_FIELDS = {null, "a", "b", "c", "d", "e", "f", "hl", "sp"};
+
+	static final String SUPERCLASS = "CompiledBlock";
+
+	Dmgcpu dmgcpu;
+
+	/** The compiled block starting at each address, or null */
+	CompiledBlock[] blocks = new CompiledBlock[0x10000];
+
+	/** Number of times each address has been reached by the interpreter */
+	int[] hits = new int[0x10000];
+
+	/** Instrumentation */
+	int blocksCompiled = 0;
+	int blocksInvalidated = 0;
+
+	BlockLoader loader = new BlockLoader();
+
+	/** Number of classes defined by the current loader */
+	int loaderClasses = 0;
+
+	public Recompiler(Dmgcpu d) {
+		dmgcpu = d;
+	}
+
+	/** Returns the compiled block starting at pc, compiling it if it has become hot.
+	 *  Returns null if the CPU should interpret the instruction at pc. */
+	public final CompiledBlock blockAt(int pc) {
+		CompiledBlock block = blocks[pc];
+		if (block == null) {
+			if (++hits[pc] == COMPILE_THRESHOLD) {
+				block = compile(pc);
+				if (block == null) {
+					hits[pc] = NOT_COMPILABLE;
+				} else {
+					blocks[pc] = block;
+				}
+			}
+		}
+		return block;
+	}
+
+	/** Called by the CPU when something has been written to a RAM page that holds code */
+	public final void invalidate(int addr) {
+		int page = addr >> 8;
+		int start = Math.max((page << 8) - MAX_BLOCK_LENGTH, 0);
+		int end = (page << 8) + 0xFF;
+		for (int r = start; r <= end; r++) {
+			CompiledBlock block = blocks[r];
+			if ((block != null) && (block.endPc >= (page << 8))) {
+				blocks[r] = null;
+				blocksInvalidated++;
+			}
+			if ((r >= (page << 8)) || (block != null)) {
+				hits[r] = 0;
+			}
+		}
+	}
+
+	/** Forget all compiled code */
+	public void reset() {
+		for (int r = 0; r < 0x10000; r++) {
+			blocks[r] = null;
+			hits[r] = 0;
+		}
+		loader = new BlockLoader();
+		loaderClasses = 0;
+	}
+
+	/** The last address a block starting at pc may use.  Blocks don't run off the end of ROM,
+	 *  work RAM, or high RAM.  Returns -1 if code at pc shouldn't be compiled. */
+	static final int regionEnd(int pc) {
+		if (pc < 0x8000) return 0x7FFF;
+		if ((pc >= 0xC000) && (pc < 0xE000)) return 0xDFFF;
+		if ((pc >= 0xFF80) && (pc < 0xFFFF)) return 0xFFFE;
+		return -1;
+	}
+
+	/** Returns true if the instruction is translated, and doesn't end a block */
+	static final boolean isStraightLine(int op) {
+		if ((op >= 0x40) && (op < 0xC0)) return op != 0x76;
+		switch (op) {
+		case 0x00 : case 0x01 : case 0x02 : case 0x03 : case 0x04 : case 0x05 : case 0x06 : case 0x07 :
+		case 0x08 : case 0x09 : case 0x0A : case 0x0B : case 0x0C : case 0x0D : case 0x0E : case 0x0F :
+		            case 0x11 : case 0x12 : case 0x13 : case 0x14 : case 0x15 : case 0x16 : case 0x17 :
+		            case 0x19 : case 0x1A : case 0x1B : case 0x1C : case 0x1D : case 0x1E : case 0x1F :
+		            case 0x21 : case 0x22 : case 0x23 : case 0x24 : case 0x25 : case 0x26 :
+		            case 0x29 : case 0x2A : case 0x2B : case 0x2C : case 0x2D : case 0x2E : case 0x2F :
+		            case 0x31 : case 0x32 : case 0x33 : case 0x34 : case 0x35 : case 0x36 : case 0x37 :
+		            case 0x39 : case 0x3A : case 0x3B : case 0x3C : case 0x3D : case 0x3E : case 0x3F :
+		case 0xC1 : case 0xC5 : case 0xC6 : case 0xCB : case 0xCE :
+		case 0xD1 : case 0xD5 : case 0xD6 : case 0xDE :
+		case 0xE0 : case 0xE1 : case 0xE2 : case 0xE5 : case 0xE6 : case 0xE8 : case 0xEA : case 0xEE :
+		case 0xF0 : case 0xF1 : case 0xF2 : case 0xF5 : case 0xF6 : case 0xF8 : case 0xF9 : case 0xFA :
+		case 0xFE :
+			return true;
+		default :
+			return false;
+		}
+	}
+
+	/** Returns true if the instruction is translated, and ends a block */
+	static final boolean isBranch(int op) {
+		switch (op) {
+		case 0x18 : case 0x20 : case 0x28 : case 0x30 : case 0x38 :             // JR
+		case 0xC2 : case 0xC3 : case 0xCA : case 0xD2 : case 0xDA : case 0xE9 : // JP
+		case 0xC4 : case 0xCC : case 0xCD : case 0xD4 : case 0xDC :             // CALL
+		case 0xC0 : case 0xC8 : case 0xC9 : case 0xD0 : case 0xD8 :             // RET
+			return true;
+		default :
+			return false;
+		}
+	}
+
+	/** Translate the block starting at pc.  Returns null if the first instruction can't be translated. */
+	CompiledBlock compile(int pc) {
+		int limit = regionEnd(pc);
+		if (limit == -1) return null;
+		byte[] memory = dmgcpu.memory;
+
+		Assembler asm = new Assembler();
+		asm.prologue();
+
+		int addr = pc;
+		int instructions = 0;
+		int cycles = 0;
+		int branchPc = -1, branchTarget = -1;
+		boolean ended = false;
+
+		while (!ended && (instructions < MAX_BLOCK_INSTRUCTIONS)) {
+			int op = JavaBoy.unsign(memory[addr]);
+			int length = Dmgcpu.OPCODE_LENGTHS[op];
+			if (addr + length - 1 > limit) break;
+
+			int b2 = JavaBoy.unsign(memory[(addr + 1) & 0xFFFF]);
+			int b3 = JavaBoy.unsign(memory[(addr + 2) & 0xFFFF]);
+			int offset = memory[(addr + 1) & 0xFFFF];
+
+			// The interpreter counts an instruction's cycles before running it
+			asm.elapsed = cycles + Dmgcpu.OPCODE_CYCLES[op];
+			if (isStraightLine(op)) {
+				asm.straightLine(op, b2, b3, offset);
+				if ((op == 0xCB) && ((b2 & 0x07) == 6)) {
+					cycles += ((b2 & 0xC0) == 0x40) ? 4 : 8;
+				}
+			} else if (isBranch(op)) {
+				int target = asm.branch(op, addr, b2, b3, offset);
+				if ((target != -1) && (target < addr)) {
+					branchPc = addr;
+					branchTarget = target;
+				}
+				ended = true;
+			} else {
+				break;
+			}
+
+			cycles += Dmgcpu.OPCODE_CYCLES[op];
+			instructions++;
+			addr += length;
+		}
+
+		if (instructions == 0) return null;
+		if (!ended) {
+			asm.exit(addr, 0);
+		}
+
+		if (loaderClasses >= MAX_LOADER_CLASSES) {
+			reset();
+		}
+
+		String name = "CompiledBlock_" + Integer.toHexString(pc) + "_" + blocksCompiled;
+		CompiledBlock block;
+		try {
+			Class<?> blockClass = loader.define(name, asm.toClassFile(name));
+			loaderClasses++;
+			block = (CompiledBlock) blockClass.getConstructor().newInstance();
+		} catch (Exception e) {
+			System.out.println("Error compiling block at " + Integer.toHexString(pc) + ": " + e);
+			return null;
+		} catch (LinkageError e) {
+			System.out.println("Error loading block at " + Integer.toHexString(pc) + ": " + e);
+			return null;
+		}
+
+		block.dmgcpu = dmgcpu;
+		block.startPc = pc;
+		block.endPc = addr - 1;
+		block.instructions = instructions;
+		block.cycles = cycles;
+		block.branchPc = branchPc;
+		block.branchTarget = branchTarget;
+
+		if (pc >= 0x8000) {
+			for (int page = pc >> 8; page <= (addr - 1) >> 8; page++) {
+				dmgcpu.codePages[page] = true;
+			}
+		}
+		blocksCompiled++;
+		return block;
+	}
+
+	/** Defines the generated classes.  The parent is the loader of CompiledBlock so they can find it. */
+	static class BlockLoader extends ClassLoader {
+		BlockLoader() {
+			super(CompiledBlock.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] classFile) {
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+
+	/** Builds the class file for one block.  The class has a constructor and a single run()
+	 *  method made of straight-line code, with a separate exit for each way out of the block.
+	 *  It is written as a version 49 class file, which doesn't need stack map frames.
+	 */
+	static class Assembler {
+		// JVM opcodes
+		static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, ILOAD = 0x15,
+		                 ALOAD_0 = 0x2A, ISTORE = 0x36, POP = 0x57, DUP = 0x59, IADD = 0x60, ISUB = 0x64,
+		                 ISHL = 0x78, ISHR = 0x7A, IAND = 0x7E, IOR = 0x80, IFEQ = 0x99, IFNE = 0x9A,
+		                 IRETURN = 0xAC, RETURN = 0xB1, GETFIELD = 0xB4, PUTFIELD = 0xB5,
+		                 INVOKEVIRTUAL = 0xB6, INVOKESPECIAL = 0xB7, INVOKESTATIC = 0xB8;
+
+		ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+		DataOutputStream pool = new DataOutputStream(poolBytes);
+		HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+		int poolCount = 1;
+
+		byte[] code = new byte[1024];
+		int codeLength = 0;
+
+		/** Cycles since the start of the block at the memory accesses being translated */
+		int elapsed;
+
+		void emit(int b) {
+			if (codeLength == code.length) {
+				byte[] bigger = new byte[code.length * 2];
+				System.arraycopy(code, 0, bigger, 0, codeLength);
+				code = bigger;
+			}
+			code[codeLength++] = (byte) b;
+		}
+
+		void emit2(int s) {
+			emit(s >> 8);
+			emit(s);
+		}
+
+		// Constant pool
+
+		int constant(String key, int tag, int x, int y, String utf) {
+			Integer index = poolIndex.get(key);
+			if (index != null) return index.intValue();
+			try {
+				pool.writeByte(tag);
+				if (utf != null) {
+					pool.writeUTF(utf);
+				} else if (tag == 3) {
+					pool.writeInt(x);
+				} else if (tag == 7) {
+					pool.writeShort(x);
+				} else {
+					pool.writeShort(x);
+					pool.writeShort(y);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e.toString());
+			}
+			poolIndex.put(key, Integer.valueOf(poolCount));
+			return poolCount++;
+		}
+
+		int utf8(String s) {
+			return constant("U" + s, 1, 0, 0, s);
+		}
+
+		int classRef(String name) {
+			return constant("C" + name, 7, utf8(name), 0, null);
+		}
+
+		int integer(int value) {
+			return constant("I" + value, 3, value, 0, null);
+		}
+
+		int member(int tag, String owner, String name, String type) {
+			int nameAndType = constant("N" + name + ":" + type, 12, utf8(name), utf8(type), null);
+			return constant(tag + owner + "." + name + ":" + type, tag, classRef(owner), nameAndType, null);
+		}
+
+		// Instructions
+
+		void pushInt(int value) {
+			if ((value >= -1) && (value <= 5)) {
+				emit(ICONST_0 + value);
+			} else if ((value >= -128) && (value <= 127)) {
+				emit(BIPUSH);
+				emit(value);
+			} else if ((value >= -32768) && (value <= 32767)) {
+				emit(SIPUSH);
+				emit2(value);
+			} else {
+				emit(LDC_W);
+				emit2(integer(value));
+			}
+		}
+
+		void load(int local) {
+			emit(ILOAD);
+			emit(local);
+		}
+
+		void store(int local) {
+			emit(ISTORE);
+			emit(local);
+		}
+
+		void op(int opcode) {
+			emit(opcode);
+		}
+
+		void invokeStatic(String name, String type) {
+			emit(INVOKESTATIC);
+			emit2(member(10, SUPERCLASS, name, type));
+		}
+
+		void invokeVirtual(String name, String type) {
+			emit(INVOKEVIRTUAL);
+			emit2(member(10, SUPERCLASS, name, type));
+		}
+
+		/** Push this.read(address on top of stack, elapsed) */
+		void readAddress() {
+			store(L_TMP);
+			emit(ALOAD_0);
+			load(L_TMP);
+			pushInt(elapsed);
+			invokeVirtual("read", "(II)I");
+		}
+
+		/** this.write(address, value, elapsed), with the value on top of the stack and the address under it */
+		void writeAddress() {
+			store(L_TMP);
+			store(L_TMP + 1);
+			emit(ALOAD_0);
+			load(L_TMP + 1);
+			load(L_TMP);
+			pushInt(elapsed);
+			invokeVirtual("write", "(III)V");
+		}
+
+		/** Split a packed (high << shift) | low result into two registers */
+		void unpack(int low, int high, int shift) {
+			emit(DUP);
+			pushInt((1 << shift) - 1);
+			emit(IAND);
+			store(low);
+			pushInt(shift);
+			emit(ISHR);
+			store(high);
+		}
+
+		/** Push the value of a register by the interpreter's register number (B C D E H L (HL) A) */
+		void pushRegister(int regNum) {
+			switch (regNum) {
+			case 0 : load(L_B); break;
+			case 1 : load(L_C); break;
+			case 2 : load(L_D); break;
+			case 3 : load(L_E); break;
+			case 4 :
+				load(L_HL);
+				pushInt(0xFF00);
+				emit(IAND);
+				pushInt(8);
+				emit(ISHR);
+				break;
+			case 5 :
+				load(L_HL);
+				pushInt(0xFF);
+				emit(IAND);
+				break;
+			case 6 :
+				load(L_HL);
+				readAddress();
+				break;
+			default : load(L_A); break;
+			}
+		}
+
+		/** Store the top of the stack into a register by the interpreter's register number */
+		void popRegister(int regNum) {
+			switch (regNum) {
+			case 0 : store(L_B); break;
+			case 1 : store(L_C); break;
+			case 2 : store(L_D); break;
+			case 3 : store(L_E); break;
+			case 4 :
+				pushInt(8);
+				emit(ISHL);
+				load(L_HL);
+				pushInt(0xFF);
+				emit(IAND);
+				emit(IOR);
+				store(L_HL);
+				break;
+			case 5 :
+				load(L_HL);
+				pushInt(0xFF00);
+				emit(IAND);
+				emit(IOR);
+				store(L_HL);
+				break;
+			case 6 :
+				store(L_TMP + 2);
+				load(L_HL);
+				load(L_TMP + 2);
+				writeAddress();
+				break;
+			default : store(L_A); break;
+			}
+		}
+
+		/** Push a register pair value (r1 << 8) + r2 */
+		void pushPair(int high, int low) {
+			load(high);
+			pushInt(8);
+			emit(ISHL);
+			load(low);
+			emit(IADD);
+		}
+
+		/** local = (local + delta) & 0xFFFF */
+		void addMasked(int local, int delta) {
+			load(local);
+			pushInt(delta);
+			emit(IADD);
+			pushInt(0xFFFF);
+			emit(IAND);
+			store(local);
+		}
+
+		/** Split a 16-bit value on the stack into a register pair */
+		void popPair(int high, int low) {
+			emit(DUP);
+			pushInt(0xFF);
+			emit(IAND);
+			store(low);
+			pushInt(8);
+			emit(ISHR);
+			store(high);
+		}
+
+		/** Apply inc8 or dec8 to the value on top of the stack, leaving the result there */
+		void incDec(boolean inc) {
+			load(L_F);
+			invokeStatic(inc ? "inc8" : "dec8", "(II)I");
+			emit(DUP);
+			pushInt(8);
+			emit(ISHR);
+			store(L_F);
+			pushInt(0xFF);
+			emit(IAND);
+		}
+
+		/** Load the registers into local variables */
+		void prologue() {
+			for (int r = L_A; r <= L_SP; r++) {
+				emit(ALOAD_0);
+				emit(GETFIELD);
+				emit2(member(9, SUPERCLASS, REGISTER_FIELDS[r], "I"));
+				store(r);
+			}
+		}
+
+		/** Store the registers back and return with the given pc and extra cycles */
+		void exit(int pc, int extraCycles) {
+			storeRegisters();
+			pushInt((extraCycles << 16) | pc);
+			emit(IRETURN);
+		}
+
+		/** Store the registers back and return with the pc held in L_TMP */
+		void exitToTmp(int extraCycles) {
+			storeRegisters();
+			load(L_TMP);
+			if (extraCycles != 0) {
+				pushInt(extraCycles << 16);
+				emit(IOR);
+			}
+			emit(IRETURN);
+		}
+
+		void storeRegisters() {
+			for (int r = L_A; r <= L_SP; r++) {
+				emit(ALOAD_0);
+				load(r);
+				emit(PUTFIELD);
+				emit2(member(9, SUPERCLASS, REGISTER_FIELDS[r], "I"));
+			}
+		}
+
+		/** Push a value that is non-zero if the condition for a conditional branch is true.
+		 *  Returns the JVM branch opcode that jumps when the condition is false. */
+		int condition(int op) {
+			load(L_F);
+			if ((op & 0x10) == 0) {
+				pushInt(0x80);      // Z flag
+			} else {
+				pushInt(0x10);      // C flag
+			}
+			emit(IAND);
+			// NZ and NC take the branch when the flag is clear
+			return ((op & 0x08) == 0) ? IFNE : IFEQ;
+		}
+
+		/** Emit a conditional jump with a 16-bit offset to be filled in, and return it's position */
+		int jumpForward(int opcode) {
+			int at = codeLength;
+			emit(opcode);
+			emit2(0);
+			return at;
+		}
+
+		void patch(int at) {
+			int offset = codeLength - at;
+			code[at + 1] = (byte) (offset >> 8);
+			code[at + 2] = (byte) offset;
+		}
+
+		/** Push the return address, then move pc to the destination */
+		void call(int returnPc) {
+			load(L_SP);
+			pushInt(2);
+			emit(ISUB);
+			store(L_SP);
+			load(L_SP);
+			pushInt(1);
+			emit(IADD);
+			pushInt(returnPc >> 8);
+			writeAddress();
+			load(L_SP);
+			pushInt(returnPc & 0x00FF);
+			writeAddress();
+		}
+
+		/** Pop the return address into L_TMP */
+		void ret() {
+			emit(ALOAD_0);
+			load(L_SP);
+			pushInt(1);
+			emit(IADD);
+			invokeVirtual("peek", "(I)I");
+			pushInt(8);
+			emit(ISHL);
+			emit(ALOAD_0);
+			load(L_SP);
+			invokeVirtual("peek", "(I)I");
+			emit(IADD);
+			store(L_TMP);
+			load(L_SP);
+			pushInt(2);
+			emit(IADD);
+			store(L_SP);
+		}
+
+		/** Translate an instruction that can't leave the block */
+		void straightLine(int op, int b2, int b3, int offset) {
+			int nn = (b3 << 8) + b2;
+
+			if ((op & 0xC0) == 0x40) {                 // LD r, r
+				pushRegister(op & 0x07);
+				popRegister((op & 0x38) >> 3);
+				return;
+			}
+			if ((op & 0xC0) == 0x80) {                 // ALU A, r
+				pushInt((op & 0x38) >> 3);
+				load(L_A);
+				load(L_F);
+				pushRegister(op & 0x07);
+				invokeStatic("aluRegister", "(IIII)I");
+				unpack(L_A, L_F, 8);
+				return;
+			}
+
+			switch (op) {
+			case 0x00 :               // NOP
+				break;
+			case 0x01 :               // LD BC, nn
+				pushInt(b3);
+				store(L_B);
+				pushInt(b2);
+				store(L_C);
+				break;
+			case 0x11 :               // LD DE, nnnn
+				pushInt(b3);
+				store(L_D);
+				pushInt(b2);
+				store(L_E);
+				break;
+			case 0x21 :               // LD HL, nnnn
+				pushInt(nn);
+				store(L_HL);
+				break;
+			case 0x31 :               // LD SP, nnnn
+				pushInt(nn);
+				store(L_SP);
+				break;
+			case 0x02 :               // LD (BC), A
+				pushPair(L_B, L_C);
+				load(L_A);
+				writeAddress();
+				break;
+			case 0x12 :               // LD (DE), A
+				pushPair(L_D, L_E);
+				load(L_A);
+				writeAddress();
+				break;
+			case 0x0A :               // LD A, (BC)
+				pushPair(L_B, L_C);
+				readAddress();
+				store(L_A);
+				break;
+			case 0x1A :               // LD A, (DE)
+				pushPair(L_D, L_E);
+				readAddress();
+				store(L_A);
+				break;
+			case 0x03 :               // INC BC
+				pushPair(L_B, L_C);
+				pushInt(1);
+				emit(IADD);
+				pushInt(0xFFFF);
+				emit(IAND);
+				popPair(L_B, L_C);
+				break;
+			case 0x13 :               // INC DE
+				pushPair(L_D, L_E);
+				pushInt(1);
+				emit(IADD);
+				pushInt(0xFFFF);
+				emit(IAND);
+				popPair(L_D, L_E);
+				break;
+			case 0x0B :               // DEC BC
+				pushPair(L_B, L_C);
+				pushInt(0xFFFF);
+				emit(IADD);
+				pushInt(0xFFFF);
+				emit(IAND);
+				popPair(L_B, L_C);
+				break;
+			case 0x1B :               // DEC DE
+				pushPair(L_D, L_E);
+				pushInt(0xFFFF);
+				emit(IADD);
+				pushInt(0xFFFF);
+				emit(IAND);
+				popPair(L_D, L_E);
+				break;
+			case 0x23 :               // INC HL
+				addMasked(L_HL, 1);
+				break;
+			case 0x2B :               // DEC HL
+				addMasked(L_HL, 0xFFFF);
+				break;
+			case 0x33 :               // INC SP
+				addMasked(L_SP, 1);
+				break;
+			case 0x3B :               // DEC SP
+				addMasked(L_SP, 0xFFFF);
+				break;
+			case 0x04 : case 0x0C : case 0x14 : case 0x1C : case 0x24 : case 0x2C : case 0x3C : // INC r
+			case 0x05 : case 0x0D : case 0x15 : case 0x1D : case 0x25 : case 0x2D : case 0x3D : // DEC r
+				pushRegister((op & 0x38) >> 3);
+				incDec((op & 0x01) == 0);
+				popRegister((op & 0x38) >> 3);
+				break;
+			case 0x34 :               // INC (HL)
+			case 0x35 :               // DEC (HL)
+				load(L_HL);
+				emit(DUP);
+				readAddress();
+				incDec(op == 0x34);
+				writeAddress();
+				break;
+			case 0x06 : case 0x0E : case 0x16 : case 0x1E : case 0x26 : case 0x2E : case 0x3E : // LD r, nn
+				pushInt(b2);
+				popRegister((op & 0x38) >> 3);
+				break;
+			case 0x36 :               // LD (HL), nn
+				load(L_HL);
+				pushInt(b2);
+				writeAddress();
+				break;
+			case 0x07 :               // RLC A
+			case 0x0F :               // RRC A
+			case 0x17 :               // RL A
+			case 0x1F :               // RR A
+			case 0x2F :               // CPL A
+			case 0x37 :               // SCF
+			case 0x3F :               // CCF
+				pushInt(op);
+				load(L_A);
+				load(L_F);
+				invokeStatic("accumulatorOp", "(III)I");
+				unpack(L_A, L_F, 8);
+				break;
+			case 0x08 :               // LD (nnnn), SP
+				pushInt(nn + 1);
+				load(L_SP);
+				pushInt(0xFF00);
+				emit(IAND);
+				pushInt(8);
+				emit(ISHR);
+				writeAddress();
+				pushInt(nn);
+				load(L_SP);
+				pushInt(0xFF);
+				emit(IAND);
+				writeAddress();
+				break;
+			case 0x09 :               // ADD HL, BC
+			case 0x19 :               // ADD HL, DE
+			case 0x29 :               // ADD HL, HL
+			case 0x39 :               // ADD HL, SP
+				load(L_HL);
+				if (op == 0x09) pushPair(L_B, L_C);
+				if (op == 0x19) pushPair(L_D, L_E);
+				if (op == 0x29) load(L_HL);
+				if (op == 0x39) load(L_SP);
+				load(L_F);
+				invokeStatic("add16", "(III)I");
+				unpack(L_HL, L_F, 16);
+				break;
+			case 0x22 :               // LD (HL+), A
+				load(L_HL);
+				load(L_A);
+				writeAddress();
+				addMasked(L_HL, 1);
+				break;
+			case 0x32 :               // LD (HL-), A
+				load(L_HL);
+				load(L_A);
+				writeAddress();
+				load(L_HL);
+				pushInt(1);
+				emit(ISUB);
+				store(L_HL);
+				break;
+			case 0x2A :               // LDI A, (HL)
+				load(L_HL);
+				readAddress();
+				store(L_A);
+				load(L_HL);
+				pushInt(1);
+				emit(IADD);
+				store(L_HL);
+				break;
+			case 0x3A :               // LD A, (HL-)
+				load(L_HL);
+				readAddress();
+				store(L_A);
+				addMasked(L_HL, 0xFFFF);
+				break;
+			case 0xC1 :               // POP BC
+			case 0xD1 :               // POP DE
+			case 0xF1 :               // POP AF
+				emit(ALOAD_0);
+				load(L_SP);
+				invokeVirtual("peek", "(I)I");
+				store(op == 0xC1 ? L_C : op == 0xD1 ? L_E : L_F);
+				emit(ALOAD_0);
+				load(L_SP);
+				pushInt(1);
+				emit(IADD);
+				invokeVirtual("peek", "(I)I");
+				store(op == 0xC1 ? L_B : op == 0xD1 ? L_D : L_A);
+				load(L_SP);
+				pushInt(2);
+				emit(IADD);
+				store(L_SP);
+				break;
+			case 0xE1 :               // POP HL
+				ret();
+				load(L_TMP);
+				store(L_HL);
+				break;
+			case 0xC5 :               // PUSH BC
+			case 0xD5 :               // PUSH DE
+			case 0xE5 :               // PUSH HL
+			case 0xF5 :               // PUSH AF
+				addMasked(L_SP, 0xFFFE);
+				if (op == 0xE5) {
+					load(L_SP);
+					pushInt(1);
+					emit(IADD);
+					load(L_HL);
+					pushInt(8);
+					emit(ISHR);
+					writeAddress();
+					load(L_SP);
+					load(L_HL);
+					pushInt(0xFF);
+					emit(IAND);
+					writeAddress();
+				} else {
+					load(L_SP);
+					load(op == 0xC5 ? L_C : op == 0xD5 ? L_E : L_F);
+					writeAddress();
+					load(L_SP);
+					pushInt(1);
+					emit(IADD);
+					load(op == 0xC5 ? L_B : op == 0xD5 ? L_D : L_A);
+					writeAddress();
+				}
+				break;
+			case 0xC6 :               // ADD A, nn
+			case 0xCE :               // ADC A, nn
+			case 0xD6 :               // SUB A, nn
+			case 0xDE :               // SBC A, nn
+			case 0xE6 :               // AND nn
+			case 0xEE :               // XOR A, nn
+			case 0xF6 :               // OR A, nn
+			case 0xFE :               // CP nn
+				pushInt(op);
+				load(L_A);
+				load(L_F);
+				pushInt(b2);
+				invokeStatic("aluImmediate", "(IIII)I");
+				unpack(L_A, L_F, 8);
+				break;
+			case 0xCB :               // Shift/bit test
+				int regNum = b2 & 0x07;
+				pushInt(b2);
+				pushRegister(regNum);
+				if (regNum == 6) {
+					elapsed += ((b2 & 0xC0) == 0x40) ? 4 : 8;  // Counted after (HL) is read
+				}
+				load(L_F);
+				invokeStatic("cb", "(III)I");
+				emit(DUP);
+				pushInt(8);
+				emit(ISHR);
+				store(L_F);
+				pushInt(0xFF);
+				emit(IAND);
+				if ((b2 & 0xC0) == 0x40) {
+					emit(POP);         // BIT doesn't write the register back
+				} else {
+					popRegister(regNum);
+				}
+				break;
+			case 0xE0 :               // LDH (FFnn), A
+				pushInt(0xFF00 + b2);
+				load(L_A);
+				writeAddress();
+				break;
+			case 0xF0 :               // LDH A, (FFnn)
+				pushInt(0xFF00 + b2);
+				readAddress();
+				store(L_A);
+				break;
+			case 0xE2 :               // LDH (FF00 + C), A
+				pushInt(0xFF00);
+				load(L_C);
+				emit(IADD);
+				load(L_A);
+				writeAddress();
+				break;
+			case 0xF2 :               // LD A, (FF00 + C)
+				pushInt(0xFF00);
+				load(L_C);
+				emit(IADD);
+				readAddress();
+				store(L_A);
+				break;
+			case 0xEA :               // LD (nnnn), A
+				pushInt(nn);
+				load(L_A);
+				writeAddress();
+				break;
+			case 0xFA :               // LD A, (nnnn)
+				pushInt(nn);
+				readAddress();
+				store(L_A);
+				break;
+			case 0xE8 :               // ADD SP, nn
+				load(L_SP);
+				pushInt(offset);
+				load(L_F);
+				invokeStatic("add16", "(III)I");
+				unpack(L_SP, L_F, 16);
+				break;
+			case 0xF8 :               // LD HL, SP + nn
+				load(L_SP);
+				pushInt(offset);
+				invokeStatic("ldHlSp", "(II)I");
+				unpack(L_HL, L_F, 16);
+				break;
+			case 0xF9 :               // LD SP, HL
+				load(L_HL);
+				store(L_SP);
+				break;
+			}
+		}
+
+		/** Translate the jump, call or return that ends a block.  Returns the destination if it is
+		 *  fixed, or -1 if it comes from a register or the stack. */
+		int branch(int op, int pc, int b2, int b3, int offset) {
+			int nn = (b3 << 8) + b2;
+			int notTaken;
+
+			switch (op) {
+			case 0x18 :               // JR nn
+				exit(pc + 2 + offset, 0);
+				return pc + 2 + offset;
+			case 0x20 :               // JR NZ, nn
+			case 0x28 :               // JR Z, nn
+			case 0x30 :               // JR NC, nn
+			case 0x38 :               // JR C, nn
+				notTaken = jumpForward(condition(op));
+				exit(pc + 2 + offset, 4);
+				patch(notTaken);
+				exit(pc + 2, 0);
+				return pc + 2 + offset;
+			case 0xC3 :               // JP nnnn
+				exit(nn, 0);
+				return nn;
+			case 0xC2 :               // JP NZ, nnnn
+			case 0xCA :               // JP Z, nnnn
+			case 0xD2 :               // JP NC, nnnn
+			case 0xDA :               // JP C, nnnn
+				notTaken = jumpForward(condition(op));
+				exit(nn, 4);
+				patch(notTaken);
+				exit(pc + 3, 0);
+				return nn;
+			case 0xE9 :               // JP (HL)
+				load(L_HL);
+				store(L_TMP);
+				exitToTmp(0);
+				return -1;
+			case 0xCD :               // CALL nnnn
+				call(pc + 3);
+				exit(nn, 0);
+				return nn;
+			case 0xC4 :               // CALL NZ, nnnnn
+			case 0xCC :               // CALL Z, nnnnn
+			case 0xD4 :               // CALL NC, nnnn
+			case 0xDC :               // CALL C, nnnn
+				notTaken = jumpForward(condition(op));
+				elapsed += 12;              // The extra cycles are counted before the return address is pushed
+				call(pc + 3);
+				exit(nn, 12);
+				patch(notTaken);
+				exit(pc + 3, 0);
+				return nn;
+			case 0xC9 :               // RET
+				ret();
+				exitToTmp(0);
+				return -1;
+			default :                 // RET NZ, RET Z, RET NC, RET C
+				notTaken = jumpForward(condition(op));
+				ret();
+				exitToTmp(12);
+				patch(notTaken);
+				exit(pc + 1, 0);
+				return -1;
+			}
+		}
+
+		/** Put together the class file */
+		byte[] toClassFile(String name) throws IOException {
+			int thisClass = classRef(name);
+			int superClass = classRef(SUPERCLASS);
+			int init = utf8("<init>");
+			int voidType = utf8("()V");
+			int superInit = member(10, SUPERCLASS, "<init>", "()V");
+			int run = utf8("run");
+			int runType = utf8("()I");
+			int codeAttribute = utf8("Code");
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(poolCount);
+			pool.flush();
+			poolBytes.writeTo(out);
+			out.writeShort(0x0031);             // public final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);                  // interfaces
+			out.writeShort(0);                  // fields
+			out.writeShort(2);                  // methods
+
+			// public <init>() { super(); }
+			out.writeShort(0x0001);
+			out.writeShort(init);
+			out.writeShort(voidType);
+			out.writeShort(1);
+			out.writeShort(codeAttribute);
+			out.writeInt(12 + 5);
+			out.writeShort(1);                  // max stack
+			out.writeShort(1);                  // max locals
+			out.writeInt(5);
+			out.writeByte(ALOAD_0);
+			out.writeByte(INVOKESPECIAL);
+			out.writeShort(superInit);
+			out.writeByte(RETURN);
+			out.writeShort(0);                  // exception table
+			out.writeShort(0);                  // attributes
+
+			// public int run()
+			out.writeShort(0x0001);
+			out.writeShort(run);
+			out.writeShort(runType);
+			out.writeShort(1);
+			out.writeShort(codeAttribute);
+			out.writeInt(12 + codeLength);
+			out.writeShort(8);                  // max stack
+			out.writeShort(L_TMP + 5);          // max locals
+			out.writeInt(codeLength);
+			out.write(code, 0, codeLength);
+			out.writeShort(0);
+			out.writeShort(0);
+
+			out.writeShort(0);                  // class attributes
+			out.flush();
+			return bytes.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/** This class checks that compiled blocks do exactly what the interpreter does.  A block is
+ *  compiled at every address in the ROM where one can be, and each is run a few times from
+ *  random registers and work RAM, once by the interpreter and once as a compiled block.  The
+ *  registers, memory, cycle count and program counter afterwards must be the same.
+ *
+ *  The interpreter is stopped where the block ends by putting an unknown opcode at each of
+ *  the block's exits.  Scheduled events are switched off, as blocks only run them at the end.
+ *  The timer is left counting at its fastest rate, so that a block reading TIMA on a
+ *  different cycle to the interpreter shows up.  Runs where the code overwrites one of the
+ *  exits, or can't be followed (RET and JP (HL)), are skipped.  Exits with status 1 if any
+ *  block differs.
+ *
+ *  Run with: java RecompilerCheck [rom file] [-random]
+ *  -random fills the ROM with random bytes instead, to try instructions the ROM doesn't use.
+ */
+class RecompilerCheck {
+	/** Runs of each block */
+	static final int TRIALS = 3;
+
+	/** Opcode that stops the interpreter */
+	static final int STOP = 0xD3;
+
+	static int tested = 0, failed = 0, skipped = 0;
+
+	public static void main(String[] args) {
+		String filename = "../roms/rom.gb";
+		boolean random = false;
+		for (int r = 0; r < args.length; r++) {
+			if (args[r].equals("-random")) {
+				random = true;
+			} else {
+				filename = args[r];
+			}
+		}
+		Random rnd = new Random(42);
+		byte[] rom = Dmgcpu.loadRom(filename);
+		if (random) {
+			rnd.nextBytes(rom);
+		}
+
+		Dmgcpu cpu = new Dmgcpu(null, rom);
+		cpu.reset();
+		Recompiler recompiler = new Recompiler(cpu);
+		byte[] image = cpu.memory.clone();
+
+		for (int pc = 0x100; pc < 0x7F00; pc++) {
+			System.arraycopy(image, 0, cpu.memory, 0, 0x10000);
+			CompiledBlock block = recompiler.compile(pc);
+			if (block == null) continue;
+			ArrayList<Integer> exits = exits(block, image);
+			for (int trial = 0; trial < TRIALS; trial++) {
+				if (exits == null) {
+					skipped++;
+				} else {
+					check(cpu, block, exits, image, rnd);
+				}
+			}
+			if (recompiler.loaderClasses >= Recompiler.MAX_LOADER_CLASSES - 1) {
+				recompiler.reset();
+			}
+		}
+		System.out.println("Blocks run: " + tested + ", differ: " + failed + ", skipped: " + skipped);
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	/** Returns the addresses the block can leave by, or null if they can't all be worked out or
+	 *  one is inside the block or outside RAM and ROM */
+	static ArrayList<Integer> exits(CompiledBlock block, byte[] memory) {
+		int last = block.startPc;
+		for (int r = 1; r < block.instructions; r++) {
+			last += Dmgcpu.OPCODE_LENGTHS[memory[last] & 0xFF];
+		}
+		int op = memory[last] & 0xFF;
+		int nn = ((memory[last + 2] & 0xFF) << 8) | (memory[last + 1] & 0xFF);
+
+		ArrayList<Integer> exits = new ArrayList<Integer>();
+		exits.add(Integer.valueOf(block.endPc + 1));
+		if (Recompiler.isBranch(op)) {
+			switch (op) {
+			case 0x18 : case 0x20 : case 0x28 : case 0x30 : case 0x38 :   // JR
+				exits.add(Integer.valueOf((last + 2 + memory[last + 1]) & 0xFFFF));
+				break;
+			case 0xC0 : case 0xC8 : case 0xC9 : case 0xD0 : case 0xD8 :   // RET
+			case 0xE9 :                                                   // JP (HL)
+				return null;
+			default :                                                     // JP and CALL
+				exits.add(Integer.valueOf(nn));
+				break;
+			}
+		}
+		for (int r = 0; r < exits.size(); r++) {
+			int addr = exits.get(r).intValue();
+			if (((addr >= block.startPc) && (addr <= block.endPc)) || ((addr >= 0x8000) && (addr < 0xC000)) || (addr >= 0xE000)) {
+				return null;
+			}
+		}
+		return exits;
+	}
+
+	/** Run the block both ways from the same random starting point and compare the results */
+	static void check(Dmgcpu cpu, CompiledBlock block, ArrayList<Integer> exits, byte[] image, Random rnd) {
+		byte[] start = image.clone();
+		for (int addr = 0xC000; addr < 0xE000; addr++) {
+			start[addr] = (byte) rnd.nextInt();
+		}
+		for (int r = 0; r < exits.size(); r++) {
+			start[exits.get(r).intValue()] = (byte) STOP;
+		}
+		int[] registers = {rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256),
+		                   rnd.nextInt(16) << 4, 0xC000 + rnd.nextInt(0x1F00), 0xC100 + rnd.nextInt(0x1E00)};
+		int divPhase = rnd.nextInt(0x10000);
+
+		prepare(cpu, start, registers, block.startPc, divPhase);
+		boolean stopped;
+		try {
+			stopped = !cpu.runCycles(0x10000) && (cpu.unknownOpcode == STOP);
+		} catch (RuntimeException e) {
+			stopped = false;           // Ran off the end of memory, as the interpreter does with SP = 0
+		}
+		for (int r = 0; r < exits.size(); r++) {
+			if (cpu.memory[exits.get(r).intValue()] != (byte) STOP) {
+				stopped = false;
+			}
+		}
+		if (!stopped) {
+			skipped++;
+			return;
+		}
+		cpu.cycles -= Dmgcpu.OPCODE_CYCLES[STOP];
+		cpu.instrCount--;
+		String interpreted = state(cpu, cpu.unknownOpcodePc);
+
+		prepare(cpu, start, registers, block.startPc, divPhase);
+		String compiled;
+		try {
+			block.execute(cpu);
+			compiled = state(cpu, cpu.pc);
+		} catch (RuntimeException e) {
+			compiled = e.toString();
+		}
+
+		tested++;
+		if (!interpreted.equals(compiled)) {
+			failed++;
+			if (failed <= 10) {
+				System.out.println("Block at " + Profiler.hex(block.startPc, 4) + " differs:");
+				System.out.println("  Interpreter: " + interpreted);
+				System.out.println("  Compiled:    " + compiled);
+			}
+		}
+	}
+
+	/** Reset the CPU with the given memory and registers, no scheduled events, and the timer running */
+	static void prepare(Dmgcpu cpu, byte[] memory, int[] registers, int pc, int divPhase) {
+		cpu.reset();
+		System.arraycopy(memory, 0, cpu.memory, 0, 0x10000);
+		cpu.schedule(Dmgcpu.EVENT_LINE, Long.MAX_VALUE);
+		cpu.timer.divBase = -divPhase;
+		cpu.timer.timaBase = 0;
+		cpu.timer.tac = 0x05;
+		cpu.a = registers[0];
+		cpu.b = registers[1];
+		cpu.c = registers[2];
+		cpu.d = registers[3];
+		cpu.e = registers[4];
+		cpu.f = registers[5];
+		cpu.hl = registers[6];
+		cpu.sp = registers[7];
+		cpu.pc = pc;
+	}
+
+	/** The registers, the timer and a hash of memory, with the given PC */
+	static String state(Dmgcpu cpu, int pc) {
+		cpu.timer.sync();
+		int[] values = {cpu.a, cpu.f, cpu.b, cpu.c, cpu.d, cpu.e, cpu.hl >> 8, cpu.hl & 0xFF, cpu.sp, pc};
+		return InstructionTrace.format(values) + " cycles:" + cpu.cycles + " instructions:" + cpu.instrCount +
+		       " TIMA:" + Profiler.hex(cpu.timer.timaValue, 2) + " memory:" + Integer.toHexString(Arrays.hashCode(cpu.memory));
+	}
+}
@@ -0,0 +1,54 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+/** A cartridge ROM and the things worked out from it that don't change while it runs: the
+ *  decoded instruction at each address and whether each backward branch closes a polling
+ *  loop.  Emulators running the same game can share one image, so thousands of them don't
+ *  each decode the ROM again.  Entries are only ever filled in with the value worked out from
+ *  the ROM, so emulators on different threads can fill them in at the same time.
+ */
+class RomImage {
+	static final int SIZE = 0x8000;
+
+	/** The first 32K of the cartridge */
+	byte[] data = new byte[SIZE];
+
+	/** Pre-decoded instruction at each ROM address, in the format used by Dmgcpu.decode() */
+	int[] decoded = new int[SIZE];
+
+	/** IdleLoopDetector's verdict on the loop ending at each branch address */
+	byte[] pollingVerdict = new byte[SIZE];
+
+	/** Copy the supplied image, which can be shorter than 32K */
+	public RomImage(byte[] rom) {
+		System.arraycopy(rom, 0, data, 0, Math.min(rom.length, SIZE));
+	}
+
+	/** Forget the decoded instructions and verdicts, for when the ROM in memory has been changed */
+	public void clear() {
+		for (int r = 0; r < SIZE; r++) {
+			decoded[r] = 0;
+			pollingVerdict[r] = 0;
+		}
+	}
+}
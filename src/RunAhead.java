@@ -0,0 +1,176 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** This class cuts the delay between pressing a button and seeing the result by running
+ *  ahead.  Most games take a frame or more to show the effect of a button, so each frame the
+ *  real frame is run with the display off, the state is saved, and the emulator runs on
+ *  another frames frames with the buttons unchanged, showing only the last.  The state is
+ *  then loaded again, so the game carries on from the real frame.  What is on screen is
+ *  what the game will show frames frames from now, which is right as long as the buttons
+ *  don't change in the meantime.  Each frame costs frames + 1 frames of CPU time, as the
+ *  hidden frames aren't drawn.
+ *
+ *  To show what it saves, it watches the frames drawn by a ScanlineGraphicsChip and times
+ *  how long it takes after the buttons change for the screen to change.
+ */
+class RunAhead implements FrameSink {
+	/** The most frames that can be run ahead */
+	static final int MAX_FRAMES = 8;
+
+	Dmgcpu dmgcpu;
+	int frames;
+	ByteBuffer state = ByteBuffer.allocate(SaveState.SIZE);
+
+	int lastButtons = 0;
+
+	/** Frames that have been shown */
+	long framesShown = 0;
+
+	// Set when the buttons change, until the screen next changes.  The time is from System.nanoTime().
+	volatile boolean waitingForResponse = false;
+	volatile long inputFrame;
+	volatile long inputTime;
+
+	// Only used by the render thread
+	int[] lastPixels = null;
+
+	// Latency measurements: the number of button changes the screen responded to, and the
+	// total number of frames and nanoseconds it took
+	volatile long responses = 0;
+	volatile long responseFrames = 0;
+	volatile long responseNanos = 0;
+
+	public RunAhead(Dmgcpu dmgcpu, int frames) {
+		this.dmgcpu = dmgcpu;
+		setFrames(frames);
+		if (dmgcpu.graphicsChip instanceof ScanlineGraphicsChip) {
+			((ScanlineGraphicsChip) dmgcpu.graphicsChip).addSink(this);
+		}
+	}
+
+	/** Set the number of frames to run ahead.  0 runs frames normally. */
+	public void setFrames(int frames) {
+		this.frames = Math.max(0, Math.min(frames, MAX_FRAMES));
+	}
+
+	/** Run one frame with the given buttons held, and show the frame that is frames ahead of it.
+	 *  Returns false if the emulator stopped. */
+	public boolean runFrame(int buttons) {
+		if (buttons != lastButtons) {
+			lastButtons = buttons;
+			inputFrame = framesShown;
+			inputTime = System.nanoTime();
+			waitingForResponse = true;
+		}
+		dmgcpu.setButtons(buttons);
+		framesShown++;
+		if (frames == 0) {
+			return dmgcpu.runFrames(1);
+		}
+
+		dmgcpu.setRendering(false);
+		boolean completed = dmgcpu.runFrames(1);
+		if (completed) {
+			dmgcpu.idleLoops.lastBranchPc = -1;
+			SaveState.save(dmgcpu, state);
+			for (int r = 0; (r < frames - 1) && completed; r++) {
+				completed = dmgcpu.runFrames(1);
+			}
+			dmgcpu.setRendering(true);
+			if (completed) {
+				completed = dmgcpu.runFrames(1);
+			}
+			SaveState.load(dmgcpu, state);
+		}
+		dmgcpu.setRendering(true);
+		return completed;
+	}
+
+	/** Called on the render thread.  Times the response to the last change of buttons. */
+	public void frameFinished(int[] pixels, long frame) {
+		if (lastPixels == null) {
+			lastPixels = pixels.clone();
+			return;
+		}
+		if (Arrays.equals(pixels, lastPixels)) return;
+		System.arraycopy(pixels, 0, lastPixels, 0, pixels.length);
+		if (waitingForResponse) {
+			waitingForResponse = false;
+			responseFrames += framesShown - inputFrame;
+			responseNanos += System.nanoTime() - inputTime;
+			responses++;
+		}
+	}
+
+	/** The average number of frames between a change of buttons and the screen changing, where
+	 *  1 is the next frame shown */
+	public double averageResponseFrames() {
+		return responses == 0 ? 0 : (double) responseFrames / responses;
+	}
+
+	/** The average time from a change of buttons to the screen changing, in milliseconds */
+	public double averageResponseMillis() {
+		return responses == 0 ? 0 : responseNanos / 1000000.0 / responses;
+	}
+
+	/** The delay that running ahead takes off, in milliseconds at the Game Boy's frame rate */
+	public double latencySavedMillis() {
+		return frames * GameboyCanvas.FRAME_NANOS / 1000000.0;
+	}
+
+	/** Press and release Right a few times with and without running ahead, and compare how
+	 *  long the screen takes to respond and how long each frame takes to run.
+	 *
+	 *  Run with: java RunAhead [rom file] [frames ahead]
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		byte[] rom = Dmgcpu.loadRom(args.length > 0 ? args[0] : "../roms/rom.gb");
+		int ahead = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int[] modes = {0, ahead};
+		for (int m = 0; m < modes.length; m++) {
+			Dmgcpu dmgcpu = new Dmgcpu(null, rom);
+			ScanlineGraphicsChip chip = new ScanlineGraphicsChip(null, dmgcpu);
+			dmgcpu.graphicsChip = chip;
+			dmgcpu.reset();
+			RunAhead runAhead = new RunAhead(dmgcpu, modes[m]);
+
+			long time = 0;
+			for (int frame = 0; frame < 1200; frame++) {
+				int buttons = ((frame >= 300) && (frame % 120 < 10)) ? Dmgcpu.BUTTON_RIGHT : 0;
+				long start = System.nanoTime();
+				runAhead.runFrame(buttons);
+				time += System.nanoTime() - start;
+				// Wait for each frame to be drawn, so the response is seen on the right frame
+				while (chip.framesRendered < runAhead.framesShown) {
+					Thread.sleep(0, 100000);
+				}
+			}
+			chip.dispose();
+			System.out.println("Running " + modes[m] + " frames ahead: " + (time / 1200 / 1000) + "us per frame, " +
+			                   runAhead.responses + " responses, " + runAhead.averageResponseFrames() + " frames from button to screen");
+		}
+	}
+}
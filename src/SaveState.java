@@ -0,0 +1,151 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** This class saves the state of an emulator into a ByteBuffer and loads it back.  The
+ *  buffer can be on the heap, a direct buffer outside the heap, or a file mapped into memory
+ *  with map() so that other programs can read the machine's state.  Everything the CPU can
+ *  see is saved: the registers, the buttons held, the cycle count and scheduled events, the
+ *  timer, and memory from 0x8000 up, copied in one block.  The ROM isn't saved, so a state
+ *  must be loaded into an emulator running the same ROM.
+ */
+class SaveState {
+	static final int MAGIC = 0x4A425354;    // "JBST"
+	static final int VERSION = 4;
+
+	/** Offset of the copy of memory from 0x8000 - 0xFFFF.  The registers and everything else
+	 *  are saved before it, padded to this size so that adding a field doesn't move memory. */
+	static final int MEMORY_OFFSET = 128;
+
+	/** Number of bytes in a saved state */
+	static final int SIZE = MEMORY_OFFSET + 0x8000;
+
+	/** Returns a direct buffer big enough for a state */
+	public static ByteBuffer allocate() {
+		return ByteBuffer.allocateDirect(SIZE);
+	}
+
+	/** Map a file into memory to hold a state.  The file is made big enough if it isn't already. */
+	public static MappedByteBuffer map(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+		try {
+			return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+		} finally {
+			file.close();
+		}
+	}
+
+	/** Save the state of the emulator at the start of the buffer */
+	public static void save(Dmgcpu dmgcpu, ByteBuffer buffer) {
+		ByteBuffer b = buffer.duplicate();
+		b.clear();
+		b.putInt(MAGIC);
+		b.putInt(VERSION);
+
+		b.putInt(dmgcpu.a);
+		b.putInt(dmgcpu.b);
+		b.putInt(dmgcpu.c);
+		b.putInt(dmgcpu.d);
+		b.putInt(dmgcpu.e);
+		b.putInt(dmgcpu.f);
+		b.putInt(dmgcpu.sp);
+		b.putInt(dmgcpu.pc);
+		b.putInt(dmgcpu.hl);
+		b.putInt(dmgcpu.interruptsEnabled ? 1 : 0);
+		b.putInt(dmgcpu.ieDelay);
+		b.putInt(dmgcpu.gbcRamBank);
+		b.putInt(dmgcpu.instrCount);
+		b.putInt(dmgcpu.buttons);
+
+		b.putLong(dmgcpu.cycles);
+		b.putLong(dmgcpu.frameCount);
+		b.putLong(dmgcpu.eventCycles[Dmgcpu.EVENT_LINE]);
+		b.putLong(dmgcpu.eventCycles[Dmgcpu.EVENT_SERIAL]);
+
+		ProgrammableTimer timer = dmgcpu.timer;
+		b.putLong(timer.divBase);
+		b.putLong(timer.timaBase);
+		b.putInt(timer.timaValue);
+		b.putInt(timer.tma);
+		b.putInt(timer.tac);
+
+		if (b.position() > MEMORY_OFFSET) {
+			throw new IllegalStateException("Saved state header is " + b.position() + " bytes, more than " + MEMORY_OFFSET);
+		}
+		while (b.position() < MEMORY_OFFSET) {
+			b.put((byte) 0);
+		}
+		b.put(dmgcpu.memory, 0x8000, 0x8000);
+	}
+
+	/** Load a state saved by save().  Returns false, leaving the emulator as it was, if the buffer
+	 *  doesn't hold a state. */
+	public static boolean load(Dmgcpu dmgcpu, ByteBuffer buffer) {
+		ByteBuffer b = buffer.duplicate();
+		b.clear();
+		if ((b.remaining() < SIZE) || (b.getInt() != MAGIC) || (b.getInt() != VERSION)) {
+			return false;
+		}
+
+		dmgcpu.a = b.getInt();
+		dmgcpu.b = b.getInt();
+		dmgcpu.c = b.getInt();
+		dmgcpu.d = b.getInt();
+		dmgcpu.e = b.getInt();
+		dmgcpu.f = b.getInt();
+		dmgcpu.sp = b.getInt();
+		dmgcpu.pc = b.getInt();
+		dmgcpu.hl = b.getInt();
+		dmgcpu.interruptsEnabled = b.getInt() != 0;
+		dmgcpu.ieDelay = b.getInt();
+		dmgcpu.gbcRamBank = b.getInt();
+		dmgcpu.instrCount = b.getInt();
+		dmgcpu.buttons = b.getInt();
+
+		dmgcpu.cycles = b.getLong();
+		dmgcpu.frameCount = b.getLong();
+		long lineEvent = b.getLong();
+		long serialEvent = b.getLong();
+
+		ProgrammableTimer timer = dmgcpu.timer;
+		timer.divBase = b.getLong();
+		timer.timaBase = b.getLong();
+		timer.timaValue = b.getInt();
+		timer.tma = b.getInt();
+		timer.tac = b.getInt();
+
+		b.position(MEMORY_OFFSET);
+		b.get(dmgcpu.memory, 0x8000, 0x8000);
+
+		dmgcpu.schedule(Dmgcpu.EVENT_LINE, lineEvent);
+		dmgcpu.schedule(Dmgcpu.EVENT_SERIAL, serialEvent);
+		timer.reschedule();
+		dmgcpu.stateLoaded();
+		return true;
+	}
+}
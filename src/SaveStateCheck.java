@@ -0,0 +1,81 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.nio.ByteBuffer;
+
+/** This class checks that a saved state loads back exactly.  An emulator is run for a while,
+ *  with the timer and the start of video RAM set to values that show up fields being
+ *  overwritten, then saved.  The state is loaded into a second emulator, saved again, and the
+ *  two states are compared byte for byte.  This is done at several points in the ROM, with
+ *  the interpreter and with the recompiler.  Exits with status 1 if any state differs.
+ *
+ *  Run with: java SaveStateCheck [rom file]
+ */
+class SaveStateCheck {
+	static final int[] FRAMES = {0, 1, 10, 60, 300};
+
+	public static void main(String[] args) {
+		byte[] rom = Dmgcpu.loadRom(args.length > 0 ? args[0] : "../roms/rom.gb");
+		boolean failed = false;
+		for (int mode = 0; mode < 2; mode++) {
+			for (int r = 0; r < FRAMES.length; r++) {
+				Dmgcpu original = new Dmgcpu(null, rom);
+				original.setRecompilerEnabled(mode == 1);
+				original.reset();
+				original.runFrames(FRAMES[r]);
+				original.addressWrite(0xFF06, 0xA5);
+				original.addressWrite(0xFF07, 0x05);
+				original.memory[0x8000] = (byte) 0x11;
+				original.memory[0x8003] = (byte) 0x06;
+
+				ByteBuffer saved = ByteBuffer.allocate(SaveState.SIZE);
+				SaveState.save(original, saved);
+
+				Dmgcpu copy = new Dmgcpu(null, rom);
+				copy.setRecompilerEnabled(mode == 1);
+				copy.reset();
+				ByteBuffer resaved = ByteBuffer.allocate(SaveState.SIZE);
+				boolean loaded = SaveState.load(copy, saved);
+				SaveState.save(copy, resaved);
+
+				int difference = firstDifference(saved, resaved);
+				boolean ok = loaded && (difference == -1) && (copy.timer.tac == original.timer.tac) &&
+				             (copy.timer.tma == original.timer.tma);
+				System.out.println((mode == 1 ? "Recompiler" : "Interpreter") + ", frame " + FRAMES[r] + ": " +
+				                   (ok ? "ok" : "differs" + (difference == -1 ? "" : " at byte " + difference)));
+				if (!ok) {
+					failed = true;
+				}
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/** Returns the offset of the first byte that differs, or -1 if the buffers are the same */
+	static int firstDifference(ByteBuffer a, ByteBuffer b) {
+		for (int r = 0; r < SaveState.SIZE; r++) {
+			if (a.get(r) != b.get(r)) return r;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,439 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.concurrent.locks.LockSupport;
+
+/** This class is an implementation of the GraphicsChip that draws the screen a scanline at a
+ *  time, so raster effects work on any line.  The CPU doesn't draw anything.  At the end of
+ *  each line it logs the display registers into a ring buffer, and a render thread turns the
+ *  logged lines into pixels, so emulation and drawing run on separate cores.
+ *
+ *  Video RAM and sprite memory are copied into a snapshot whenever they have been written
+ *  since the last line was logged, and each line is drawn from the snapshot that was current
+ *  when it was logged.  Neither thread reads memory the other one is changing.
+ */
+class ScanlineGraphicsChip extends GraphicsChip implements Runnable {
+	static final int WIDTH = 160;
+	static final int HEIGHT = 144;
+
+	/** Number of lines the ring buffer holds.  Must be a power of two. */
+	static final int RING_SIZE = 512;
+
+	/** Number of video memory snapshots that can be in use at once */
+	static final int SNAPSHOTS = 8;
+
+	/** A snapshot holds video RAM followed by sprite attribute memory */
+	static final int OAM = 0x2000;
+	static final int SNAPSHOT_SIZE = OAM + 0xA0;
+
+	/** How long either thread sleeps when it has to wait for the other */
+	static final long WAIT_NANOS = 100000;
+
+	// The scanline records.  The CPU thread writes record writeSeq, and the render thread
+	// draws record readSeq.
+	int[] ringLine = new int[RING_SIZE];
+	int[] ringScx = new int[RING_SIZE];
+	int[] ringScy = new int[RING_SIZE];
+	int[] ringWx = new int[RING_SIZE];
+	int[] ringWy = new int[RING_SIZE];
+	int[] ringLcdc = new int[RING_SIZE];
+	int[] ringBgp = new int[RING_SIZE];
+	int[] ringObp0 = new int[RING_SIZE];
+	int[] ringObp1 = new int[RING_SIZE];
+	int[] ringSnapshot = new int[RING_SIZE];
+	volatile long writeSeq = 0;
+	volatile long readSeq = 0;
+
+	byte[][] snapshots = new byte[SNAPSHOTS][SNAPSHOT_SIZE];
+
+	/** The last record that uses each snapshot.  It can be reused once that has been drawn. */
+	long[] snapshotLastUse = new long[SNAPSHOTS];
+
+	/** The number of each snapshot, counting every one taken.  Slots are reused, so this is
+	 *  what tells one snapshot from another. */
+	long[] snapshotSerial = new long[SNAPSHOTS];
+	long snapshotsTaken = 0;
+	int currentSnapshot = -1;
+	int snapshotGeneration;
+
+	/** The frame being drawn by the render thread, and the last complete frame */
+	int[] pixels = new int[WIDTH * HEIGHT];
+	int[] frontPixels = new int[WIDTH * HEIGHT];
+	/** Produces the image of frontPixels shown by draw().  Null when running headless. */
+	MemoryImageSource source;
+
+	/** When set, each frame is shown on this canvas by the render thread as soon as it is
+	 *  finished, and draw() isn't used */
+	GameboyCanvas canvas = null;
+
+	/** Colour number (0 - 3) of the background or window at each pixel of the line being drawn */
+	byte[] bgColour = new byte[WIDTH];
+
+	/** The tile maps drawn out in full as 256x256 colour numbers.  There is one for each map
+	 *  (0x9800 and 0x9C00) with each of the tile data areas that LCDC bit 4 selects.  Only the
+	 *  tiles that have changed are drawn again, when a line that shows them is drawn. */
+	byte[][] mapBitmaps = new byte[4][256 * 256];
+
+	/** True for each entry of each map bitmap that needs to be drawn again */
+	boolean[][] mapDirty = new boolean[4][1024];
+
+	/** The video RAM that the map bitmaps were drawn from, to find what changes in each snapshot */
+	byte[] bitmapVram = new byte[0x2000];
+	long bitmapSerial = 0;
+	boolean[] tileChanged = new boolean[384];
+
+	/** RGB values of the four colours in the background palette for the line being drawn */
+	int[] lineShades = new int[4];
+
+	/** The sprites on the line being drawn, in drawing order */
+	int[] lineSprites = new int[10];
+
+	/** The line of the window to be drawn next */
+	int windowLine;
+
+	/** Number of frames completed by the render thread */
+	volatile long framesRendered = 0;
+
+	/** Given each frame as it is completed */
+	volatile FrameSink[] sinks = new FrameSink[0];
+
+	Thread renderThread;
+	volatile boolean running = true;
+
+	public ScanlineGraphicsChip(Component a, Dmgcpu d) {
+		super(a, d);
+		for (int r = 0; r < SNAPSHOTS; r++) {
+			snapshotLastUse[r] = -1;
+		}
+		for (int m = 0; m < 4; m++) {
+			for (int r = 0; r < 1024; r++) {
+				mapDirty[m][r] = true;
+			}
+		}
+		if (a != null) {
+			source = new MemoryImageSource(WIDTH, HEIGHT, new DirectColorModel(32, 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000), frontPixels, 0, WIDTH);
+			source.setAnimated(true);
+			setMagnify();
+		}
+
+		renderThread = new Thread(this);
+		renderThread.setDaemon(true);
+		renderThread.start();
+	}
+
+	public void setMagnify() {
+		if (applet != null) {
+			if (backBuffer != null) backBuffer.flush();
+			backBuffer = applet.createImage(source);
+		}
+	}
+
+	/** Tiles aren't cached, so there is nothing to invalidate */
+	public void invalidateAll(int attribs) {
+	}
+
+	/** Log the display registers for the line that has just finished */
+	public void notifyScanline(int line) {
+		if (line >= HEIGHT) return;
+		byte[] memory = dmgcpu.memory;
+
+		if ((currentSnapshot == -1) || (dmgcpu.vramGeneration != snapshotGeneration)) {
+			takeSnapshot();
+		}
+		while (writeSeq - readSeq >= RING_SIZE) {
+			LockSupport.parkNanos(WAIT_NANOS);
+		}
+
+		long seq = writeSeq;
+		int i = (int) seq & (RING_SIZE - 1);
+		ringLine[i] = line;
+		ringLcdc[i] = JavaBoy.unsign(memory[0xFF40]);
+		ringScy[i] = JavaBoy.unsign(memory[0xFF42]);
+		ringScx[i] = JavaBoy.unsign(memory[0xFF43]);
+		ringBgp[i] = JavaBoy.unsign(memory[0xFF47]);
+		ringObp0[i] = JavaBoy.unsign(memory[0xFF48]);
+		ringObp1[i] = JavaBoy.unsign(memory[0xFF49]);
+		ringWy[i] = JavaBoy.unsign(memory[0xFF4A]);
+		ringWx[i] = JavaBoy.unsign(memory[0xFF4B]);
+		ringSnapshot[i] = currentSnapshot;
+		snapshotLastUse[currentSnapshot] = seq;
+		writeSeq = seq + 1;
+	}
+
+	/** Copy video memory into the next snapshot, waiting until the render thread has finished with it */
+	final void takeSnapshot() {
+		int next = (currentSnapshot + 1) % SNAPSHOTS;
+		while (readSeq <= snapshotLastUse[next]) {
+			LockSupport.parkNanos(WAIT_NANOS);
+		}
+		System.arraycopy(dmgcpu.memory, 0x8000, snapshots[next], 0, 0x2000);
+		System.arraycopy(dmgcpu.memory, 0xFE00, snapshots[next], OAM, 0xA0);
+		snapshotSerial[next] = ++snapshotsTaken;
+		currentSnapshot = next;
+		snapshotGeneration = dmgcpu.vramGeneration;
+	}
+
+	/** The render thread.  Draws lines as they are logged. */
+	public void run() {
+		while (running) {
+			long seq = readSeq;
+			if (seq == writeSeq) {
+				LockSupport.parkNanos(WAIT_NANOS);
+			} else {
+				renderLine((int) seq & (RING_SIZE - 1));
+				readSeq = seq + 1;
+			}
+		}
+	}
+
+	/** Start giving frames to a sink */
+	public synchronized void addSink(FrameSink sink) {
+		FrameSink[] newSinks = new FrameSink[sinks.length + 1];
+		System.arraycopy(sinks, 0, newSinks, 0, sinks.length);
+		newSinks[sinks.length] = sink;
+		sinks = newSinks;
+	}
+
+	/** Stop the render thread */
+	public void dispose() {
+		running = false;
+	}
+
+	/** Returns the RGB value of a colour number in a palette */
+	static final int shade(int palette, int colour) {
+		return GameboyPalette.DMG_COLOURS[(palette >> (colour << 1)) & 0x03];
+	}
+
+	/** Returns the offset in video RAM of a tile used by the background or window */
+	static final int tileAddress(byte tileNum, int lcdc) {
+		if ((lcdc & 0x10) != 0) {
+			return JavaBoy.unsign(tileNum) << 4;
+		} else {
+			return 0x1000 + (tileNum << 4);
+		}
+	}
+
+	/** Returns the map bitmap for a map (0 or 1) with the tile data area selected by lcdc */
+	static final int bitmapNumber(int map, int lcdc) {
+		return (map << 1) | ((lcdc >> 4) & 1);
+	}
+
+	/** Find what has changed in video RAM since the map bitmaps were last brought up to date,
+	 *  and mark the map entries that need to be drawn again */
+	final void compareSnapshot(byte[] vram) {
+		byte[] old = bitmapVram;
+		boolean anyTile = false;
+		for (int t = 0; t < 384; t++) {
+			boolean changed = false;
+			int addr = t << 4;
+			for (int r = 0; r < 16; r++) {
+				if (vram[addr + r] != old[addr + r]) {
+					changed = true;
+					break;
+				}
+			}
+			tileChanged[t] = changed;
+			anyTile |= changed;
+		}
+
+		for (int map = 0; map < 2; map++) {
+			int mapAddress = 0x1800 + (map << 10);
+			boolean[] unsignedDirty = mapDirty[bitmapNumber(map, 0x10)];
+			boolean[] signedDirty = mapDirty[bitmapNumber(map, 0)];
+			for (int entry = 0; entry < 1024; entry++) {
+				byte tileNum = vram[mapAddress + entry];
+				if (tileNum != old[mapAddress + entry]) {
+					unsignedDirty[entry] = true;
+					signedDirty[entry] = true;
+				} else if (anyTile) {
+					if (tileChanged[JavaBoy.unsign(tileNum)]) unsignedDirty[entry] = true;
+					if (tileChanged[256 + tileNum]) signedDirty[entry] = true;
+				}
+			}
+		}
+		System.arraycopy(vram, 0, old, 0, 0x2000);
+	}
+
+	/** Returns a map bitmap, after drawing any tiles on the given row of tiles that have changed */
+	final byte[] mapBitmap(int map, int lcdc, int tileRow, byte[] vram) {
+		int number = bitmapNumber(map, lcdc);
+		byte[] bitmap = mapBitmaps[number];
+		boolean[] dirty = mapDirty[number];
+		int mapAddress = 0x1800 + (map << 10);
+		for (int entry = tileRow << 5; entry < (tileRow + 1) << 5; entry++) {
+			if (dirty[entry]) {
+				int tileAddr = tileAddress(vram[mapAddress + entry], lcdc);
+				int out = ((entry >> 5) << 11) + ((entry & 0x1F) << 3);
+				for (int y = 0; y < 8; y++) {
+					int row = decodeRow(vram[tileAddr], vram[tileAddr + 1], PLANE_SPREAD);
+					for (int x = 0; x < 8; x++) {
+						bitmap[out + x] = (byte) ((row >> (14 - (x << 1))) & 0x03);
+					}
+					tileAddr += 2;
+					out += 256;
+				}
+				dirty[entry] = false;
+			}
+		}
+		return bitmap;
+	}
+
+	/** Draw the scanline held in record i */
+	final void renderLine(int i) {
+		int line = ringLine[i];
+		int lcdc = ringLcdc[i];
+		byte[] vram = snapshots[ringSnapshot[i]];
+		int offset = line * WIDTH;
+
+		if (line == 0) {
+			windowLine = 0;
+		}
+
+		if ((lcdc & 0x81) != 0x81) {
+			// Display or background off
+			for (int x = 0; x < WIDTH; x++) {
+				bgColour[x] = 0;
+				pixels[offset + x] = GameboyPalette.DMG_COLOURS[0];
+			}
+		} else {
+			long serial = snapshotSerial[ringSnapshot[i]];
+			if (serial != bitmapSerial) {
+				compareSnapshot(vram);
+				bitmapSerial = serial;
+			}
+
+			// Background, copied from the map bitmap wrapping round at the right hand edge
+			int y = (line + ringScy[i]) & 0xFF;
+			byte[] bitmap = mapBitmap((lcdc >> 3) & 1, lcdc, y >> 3, vram);
+			int scx = ringScx[i];
+			int first = Math.min(WIDTH, 256 - scx);
+			System.arraycopy(bitmap, (y << 8) + scx, bgColour, 0, first);
+			System.arraycopy(bitmap, y << 8, bgColour, first, WIDTH - first);
+
+			// Window
+			int wx = ringWx[i] - 7;
+			if (((lcdc & 0x20) != 0) && (line >= ringWy[i]) && (wx < WIDTH)) {
+				bitmap = mapBitmap((lcdc >> 6) & 1, lcdc, windowLine >> 3, vram);
+				int start = Math.max(wx, 0);
+				System.arraycopy(bitmap, (windowLine << 8) + start - wx, bgColour, start, WIDTH - start);
+				windowLine++;
+			}
+
+			int bgp = ringBgp[i];
+			for (int c = 0; c < 4; c++) {
+				lineShades[c] = shade(bgp, c);
+			}
+			for (int x = 0; x < WIDTH; x++) {
+				pixels[offset + x] = lineShades[bgColour[x]];
+			}
+		}
+
+		if ((lcdc & 0x82) == 0x82) {
+			drawSprites(i, line, offset, vram, lcdc);
+		}
+
+		if (line == HEIGHT - 1) {
+			frameComplete();
+		}
+	}
+
+	/** Draw the sprites on a line.  On the Gameboy a sprite with a lower X coordinate, or an
+	 *  earlier entry in sprite memory if they are the same, goes on top. */
+	final void drawSprites(int i, int line, int offset, byte[] vram, int lcdc) {
+		int height = ((lcdc & 0x04) != 0) ? 16 : 8;
+
+		// Only the first ten sprites on the line are shown
+		int count = 0;
+		for (int s = 0; (s < 40) && (count < 10); s++) {
+			int y = JavaBoy.unsign(vram[OAM + (s << 2)]) - 16;
+			if ((line >= y) && (line < y + height)) {
+				lineSprites[count++] = s;
+			}
+		}
+
+		// Sort them so that the one that goes on top is drawn last
+		for (int r = 1; r < count; r++) {
+			int s = lineSprites[r];
+			int x = JavaBoy.unsign(vram[OAM + (s << 2) + 1]);
+			int p = r - 1;
+			while ((p >= 0) && (JavaBoy.unsign(vram[OAM + (lineSprites[p] << 2) + 1]) <= x)) {
+				lineSprites[p + 1] = lineSprites[p];
+				p--;
+			}
+			lineSprites[p + 1] = s;
+		}
+
+		for (int r = 0; r < count; r++) {
+			int address = OAM + (lineSprites[r] << 2);
+			int spriteY = JavaBoy.unsign(vram[address]) - 16;
+			int spriteX = JavaBoy.unsign(vram[address + 1]) - 8;
+			int tileNum = JavaBoy.unsign(vram[address + 2]);
+			int attributes = vram[address + 3];
+
+			int row = line - spriteY;
+			if ((attributes & 0x40) != 0) {
+				row = height - 1 - row;
+			}
+			if (height == 16) {
+				tileNum &= 0xFE;
+			}
+			int tileAddr = (tileNum << 4) + (row << 1);
+			int palette = ((attributes & 0x10) != 0) ? ringObp1[i] : ringObp0[i];
+
+			int pixelRow = decodeRow(vram[tileAddr], vram[tileAddr + 1], ((attributes & 0x20) != 0) ? PLANE_SPREAD_FLIPPED : PLANE_SPREAD);
+			for (int px = 0; px < 8; px++) {
+				int x = spriteX + px;
+				if ((x < 0) || (x >= WIDTH)) continue;
+				int colour = (pixelRow >> (14 - (px << 1))) & 0x03;
+				if (colour == 0) continue;
+				if (((attributes & 0x80) != 0) && (bgColour[x] != 0)) continue;
+				pixels[offset + x] = shade(palette, colour);
+			}
+		}
+	}
+
+	/** Make the frame that has just been drawn the one shown on the screen */
+	final void frameComplete() {
+		System.arraycopy(pixels, 0, frontPixels, 0, WIDTH * HEIGHT);
+		long frame = ++framesRendered;
+		FrameSink[] frameSinks = sinks;
+		for (int r = 0; r < frameSinks.length; r++) {
+			frameSinks[r].frameFinished(pixels, frame);
+		}
+		if (canvas != null) {
+			canvas.present(pixels);
+		}
+		if (source != null) {
+			source.newPixels();
+		}
+	}
+
+	/** Draw the last complete frame into the given graphics context */
+	public boolean draw(Graphics g, int startX, int startY, Component a) {
+		g.drawImage(backBuffer, startX, startY, WIDTH * magnify, HEIGHT * magnify, null);
+		frameDone = true;
+		return true;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+/** This class is the master class for the filters that scale up the Gameboy screen before it
+ *  is shown.  A filter makes each source pixel into a scale x scale block of output pixels,
+ *  and works on a band of source rows at a time so that a ScreenScaler can share a frame out
+ *  between threads.  Pixels are 0xAARRGGBB ints.
+ */
+abstract class ScreenFilter {
+	int scale;
+
+	public ScreenFilter(int scale) {
+		this.scale = scale;
+	}
+
+	/** Scale source rows firstRow to lastRow - 1 into dst, which is scale times the width and height of src */
+	abstract public void filter(int[] src, int width, int height, int[] dst, int firstRow, int lastRow);
+
+	/** Returns the filter with the given name, or null if there isn't one.  The nearest neighbour
+	 *  filter scales by magnify, the others by the number in their name. */
+	public static ScreenFilter forName(String name, int magnify) {
+		if (name.equalsIgnoreCase("nearest")) return new Nearest(magnify);
+		if (name.equalsIgnoreCase("scale2x")) return new Scale2x();
+		if (name.equalsIgnoreCase("scale3x")) return new Scale3x();
+		if (name.equalsIgnoreCase("hq2x")) return new Hq2x();
+		return null;
+	}
+
+	/** Copies each pixel into a square block */
+	static class Nearest extends ScreenFilter {
+		public Nearest(int scale) {
+			super(scale);
+		}
+
+		public void filter(int[] src, int width, int height, int[] dst, int firstRow, int lastRow) {
+			int dstWidth = width * scale;
+			for (int y = firstRow; y < lastRow; y++) {
+				int out = y * scale * dstWidth;
+				int in = y * width;
+				for (int x = 0; x < width; x++) {
+					int p = src[in + x];
+					for (int r = 0; r < scale; r++) {
+						dst[out++] = p;
+					}
+				}
+				// The other rows of the block are the same as the first
+				for (int r = 1; r < scale; r++) {
+					System.arraycopy(dst, y * scale * dstWidth, dst, (y * scale + r) * dstWidth, dstWidth);
+				}
+			}
+		}
+	}
+
+	/** The Scale2x (AdvMAME2x) edge filter.  Each corner of the block takes the colour of the
+	 *  two neighbours next to it when they match, which smooths diagonal edges. */
+	static class Scale2x extends ScreenFilter {
+		public Scale2x() {
+			super(2);
+		}
+
+		public void filter(int[] src, int width, int height, int[] dst, int firstRow, int lastRow) {
+			int dstWidth = width * 2;
+			for (int y = firstRow; y < lastRow; y++) {
+				int above = (y > 0 ? y - 1 : y) * width;
+				int row = y * width;
+				int below = (y < height - 1 ? y + 1 : y) * width;
+				int out = y * 2 * dstWidth;
+				for (int x = 0; x < width; x++) {
+					int left = x > 0 ? x - 1 : x;
+					int right = x < width - 1 ? x + 1 : x;
+					int a = src[above + x];
+					int c = src[row + left];
+					int p = src[row + x];
+					int b = src[row + right];
+					int d = src[below + x];
+
+					dst[out] =                ((c == a) && (c != d) && (a != b)) ? a : p;
+					dst[out + 1] =            ((a == b) && (a != c) && (b != d)) ? b : p;
+					dst[out + dstWidth] =     ((d == c) && (d != b) && (c != a)) ? c : p;
+					dst[out + dstWidth + 1] = ((b == d) && (b != a) && (d != c)) ? d : p;
+					out += 2;
+				}
+			}
+		}
+	}
+
+	/** The Scale3x (AdvMAME3x) edge filter */
+	static class Scale3x extends ScreenFilter {
+		public Scale3x() {
+			super(3);
+		}
+
+		public void filter(int[] src, int width, int height, int[] dst, int firstRow, int lastRow) {
+			int dstWidth = width * 3;
+			for (int y = firstRow; y < lastRow; y++) {
+				int above = (y > 0 ? y - 1 : y) * width;
+				int row = y * width;
+				int below = (y < height - 1 ? y + 1 : y) * width;
+				int out = y * 3 * dstWidth;
+				for (int x = 0; x < width; x++) {
+					int left = x > 0 ? x - 1 : x;
+					int right = x < width - 1 ? x + 1 : x;
+					// A B C
+					// D E F
+					// G H I
+					int a = src[above + left], b = src[above + x], c = src[above + right];
+					int d = src[row + left], e = src[row + x], f = src[row + right];
+					int g = src[below + left], h = src[below + x], i = src[below + right];
+
+					int o = out;
+					if ((b != h) && (d != f)) {
+						dst[o] =     (d == b) ? d : e;
+						dst[o + 1] = (((d == b) && (e != c)) || ((b == f) && (e != a))) ? b : e;
+						dst[o + 2] = (b == f) ? f : e;
+						o += dstWidth;
+						dst[o] =     (((d == b) && (e != g)) || ((d == h) && (e != a))) ? d : e;
+						dst[o + 1] = e;
+						dst[o + 2] = (((b == f) && (e != i)) || ((h == f) && (e != c))) ? f : e;
+						o += dstWidth;
+						dst[o] =     (d == h) ? d : e;
+						dst[o + 1] = (((d == h) && (e != i)) || ((h == f) && (e != g))) ? h : e;
+						dst[o + 2] = (h == f) ? f : e;
+					} else {
+						for (int r = 0; r < 3; r++) {
+							dst[o] = e;
+							dst[o + 1] = e;
+							dst[o + 2] = e;
+							o += dstWidth;
+						}
+					}
+					out += 3;
+				}
+			}
+		}
+	}
+
+	/** An HQ2x style filter.  It follows the Scale2x rules, but compares colours by how close
+	 *  they look rather than exactly, and blends the corners rather than copying them, which
+	 *  gives smoother edges where colours are close but not the same. */
+	static class Hq2x extends ScreenFilter {
+		// Largest differences in brightness and colour that still count as similar
+		static final int Y_THRESHOLD = 48;
+		static final int U_THRESHOLD = 7;
+		static final int V_THRESHOLD = 6;
+
+		public Hq2x() {
+			super(2);
+		}
+
+		static final boolean similar(int p, int q) {
+			if (p == q) return true;
+			int r1 = (p >> 16) & 0xFF, g1 = (p >> 8) & 0xFF, b1 = p & 0xFF;
+			int r2 = (q >> 16) & 0xFF, g2 = (q >> 8) & 0xFF, b2 = q & 0xFF;
+			int dy = ((r1 - r2) * 299 + (g1 - g2) * 587 + (b1 - b2) * 114) / 1000;
+			int du = ((b1 - b2) * 500 - (r1 - r2) * 169 - (g1 - g2) * 331) / 1000;
+			int dv = ((r1 - r2) * 500 - (g1 - g2) * 419 - (b1 - b2) * 81) / 1000;
+			return (Math.abs(dy) <= Y_THRESHOLD) && (Math.abs(du) <= U_THRESHOLD) && (Math.abs(dv) <= V_THRESHOLD);
+		}
+
+		/** Returns the average of two colours */
+		static final int mix(int p, int q) {
+			return 0xFF000000 | (((p & 0xFEFEFE) >> 1) + ((q & 0xFEFEFE) >> 1));
+		}
+
+		/** Returns the corner colour: three parts the neighbours to one part the centre pixel */
+		static final int corner(int p, int n1, int n2) {
+			int n = mix(n1, n2);
+			return mix(n, mix(n, p));
+		}
+
+		public void filter(int[] src, int width, int height, int[] dst, int firstRow, int lastRow) {
+			int dstWidth = width * 2;
+			for (int y = firstRow; y < lastRow; y++) {
+				int above = (y > 0 ? y - 1 : y) * width;
+				int row = y * width;
+				int below = (y < height - 1 ? y + 1 : y) * width;
+				int out = y * 2 * dstWidth;
+				for (int x = 0; x < width; x++) {
+					int left = x > 0 ? x - 1 : x;
+					int right = x < width - 1 ? x + 1 : x;
+					int a = src[above + x];
+					int c = src[row + left];
+					int p = src[row + x];
+					int b = src[row + right];
+					int d = src[below + x];
+
+					if (similar(a, d) || similar(c, b)) {
+						// No diagonal edge through this pixel
+						dst[out] = p;
+						dst[out + 1] = p;
+						dst[out + dstWidth] = p;
+						dst[out + dstWidth + 1] = p;
+					} else {
+						dst[out] =                similar(c, a) ? corner(p, c, a) : p;
+						dst[out + 1] =            similar(a, b) ? corner(p, a, b) : p;
+						dst[out + dstWidth] =     similar(d, c) ? corner(p, d, c) : p;
+						dst[out + dstWidth + 1] = similar(b, d) ? corner(p, b, d) : p;
+					}
+					out += 2;
+				}
+			}
+		}
+	}
+}
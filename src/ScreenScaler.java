@@ -0,0 +1,133 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** This class runs a ScreenFilter over each frame, into a BufferedImage that can be drawn
+ *  straight onto the screen.  Filters that scale by PARALLEL_SCALE or more are split into
+ *  bands of rows, one per processor.  The thread calling scale() does the first band itself
+ *  and waits for the others.
+ */
+class ScreenScaler {
+	/** Filters with a scale below this run on the calling thread alone */
+	static final int PARALLEL_SCALE = 3;
+
+	ScreenFilter filter;
+	int width, height;
+
+	BufferedImage image;
+	int[] output;
+
+	/** The frame being scaled */
+	int[] source;
+
+	Band[] bands;
+	ExecutorService executor;
+
+	/** Number of bands still being scaled by other threads */
+	int remaining;
+
+	public ScreenScaler(ScreenFilter f, int width, int height) {
+		this(f, width, height, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ScreenScaler(ScreenFilter f, int width, int height, int threads) {
+		filter = f;
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width * f.scale, height * f.scale, BufferedImage.TYPE_INT_RGB);
+		output = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		int count = (f.scale >= PARALLEL_SCALE) ? Math.max(1, Math.min(threads, height)) : 1;
+		bands = new Band[count];
+		for (int r = 0; r < count; r++) {
+			bands[r] = new Band(height * r / count, height * (r + 1) / count);
+		}
+		if (count > 1) {
+			executor = Executors.newFixedThreadPool(count - 1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ScreenScaler");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+	/** Scale a frame.  Returns the image holding the result. */
+	public BufferedImage scale(int[] src) {
+		source = src;
+		if (bands.length == 1) {
+			bands[0].run();
+			return image;
+		}
+
+		synchronized (this) {
+			remaining = bands.length - 1;
+		}
+		for (int r = 1; r < bands.length; r++) {
+			executor.execute(bands[r]);
+		}
+		bands[0].run();
+		synchronized (this) {
+			while (remaining > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+		return image;
+	}
+
+	synchronized void bandDone() {
+		remaining--;
+		notifyAll();
+	}
+
+	/** Stop the threads */
+	public void dispose() {
+		if (executor != null) executor.shutdown();
+	}
+
+	/** A band of source rows */
+	class Band implements Runnable {
+		int firstRow, lastRow;
+
+		Band(int first, int last) {
+			firstRow = first;
+			lastRow = last;
+		}
+
+		public void run() {
+			filter.filter(source, width, height, output, firstRow, lastRow);
+			if (this != bands[0]) {
+				bandDone();
+			}
+		}
+	}
+}
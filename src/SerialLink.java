@@ -0,0 +1,210 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/** This class is one end of a link cable between two Gameboys, which can be in this process
+ *  or in another connected by a socket.  The two machines don't stop for each other on every
+ *  instruction or every byte.  Each runs windowCycles cycles on its own, then they swap what
+ *  happened at their end of the cable in that window, and run the next window.
+ *
+ *  The side clocking a transfer finishes it on the cycle it is due, taking the byte the other
+ *  side had in SB at the start of the window, provided it was waiting on the external clock
+ *  then.  The other side gets its byte, and its serial interrupt, at the end of the window.
+ *  So transfers can arrive up to windowCycles late, and everything stays deterministic for
+ *  a given window size.  The other side only sees a reply at the start of the window after
+ *  the one it arrived in, so back to back transfers need a window of a quarter of
+ *  SERIAL_CYCLES or less to keep up.
+ */
+class SerialLink {
+	static final int DEFAULT_WINDOW = Dmgcpu.SERIAL_CYCLES / 4;
+
+	Dmgcpu dmgcpu;
+	int windowCycles;
+
+	/** The other end when it is in this process */
+	SerialLink partner = null;
+	DataInputStream in = null;
+	DataOutputStream out = null;
+
+	/** The other end's SB, and whether it was waiting for a transfer, at the start of the window */
+	int partnerData = 0xFF;
+	boolean partnerReady = false;
+
+	/** The byte sent to the other end this window, or -1 */
+	int outgoing = -1;
+
+	// What this end reported at the end of the last window
+	int reportedOutgoing;
+	int reportedData;
+	boolean reportedReady;
+
+	/** Number of bytes sent and received */
+	long bytesSent = 0;
+	long bytesReceived = 0;
+
+	SerialLink(Dmgcpu dmgcpu, int windowCycles) {
+		this.dmgcpu = dmgcpu;
+		this.windowCycles = windowCycles;
+		dmgcpu.serialLink = this;
+	}
+
+	/** Connect two machines in this process */
+	public static SerialLink[] connect(Dmgcpu a, Dmgcpu b, int windowCycles) {
+		SerialLink[] ends = {new SerialLink(a, windowCycles), new SerialLink(b, windowCycles)};
+		ends[0].partner = ends[1];
+		ends[1].partner = ends[0];
+		return ends;
+	}
+
+	/** Connect a machine to one in another process.  Both sides must use the same window. */
+	public static SerialLink connect(Dmgcpu dmgcpu, Socket socket, int windowCycles) throws IOException {
+		SerialLink end = new SerialLink(dmgcpu, windowCycles);
+		socket.setTcpNoDelay(true);
+		end.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		end.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		return end;
+	}
+
+	/** Called by the CPU when it starts clocking out a byte */
+	void transferStarted(int data) {
+	}
+
+	/** Called by the CPU when a transfer it is clocking finishes.  Returns the byte received. */
+	final int exchange(int data) {
+		bytesSent++;
+		if (!partnerReady) {
+			return 0xFF;
+		}
+		partnerReady = false;
+		outgoing = data;
+		bytesReceived++;
+		return partnerData;
+	}
+
+	/** True if this side is waiting for the other to clock a transfer */
+	final boolean ready() {
+		return (dmgcpu.memory[0xFF02] & 0x81) == 0x80;
+	}
+
+	/** Take note of the state of this end at the end of a window */
+	final void report() {
+		reportedOutgoing = outgoing;
+		reportedData = JavaBoy.unsign(dmgcpu.memory[0xFF01]);
+		reportedReady = ready();
+		outgoing = -1;
+	}
+
+	/** Act on what the other end reported at the end of the window */
+	final void update(int partnerOutgoing, int data, boolean ready) {
+		if ((partnerOutgoing != -1) && ready()) {
+			dmgcpu.memory[0xFF01] = (byte) partnerOutgoing;
+			dmgcpu.memory[0xFF02] &= 0x7F;
+			dmgcpu.triggerInterrupt(dmgcpu.INT_SER);
+			bytesReceived++;
+		}
+		// If we sent a byte this window the other side has it now and isn't waiting any more
+		partnerData = data;
+		partnerReady = ready && (reportedOutgoing == -1);
+	}
+
+	/** Swap states with the other end at the end of a window.  For two machines in this
+	 *  process, both must have finished the window. */
+	final void sync() throws IOException {
+		report();
+		if (partner != null) {
+			partner.report();
+			update(partner.reportedOutgoing, partner.reportedData, partner.reportedReady);
+			partner.update(reportedOutgoing, reportedData, reportedReady);
+		} else {
+			out.writeInt(reportedOutgoing);
+			out.writeByte(reportedData);
+			out.writeBoolean(reportedReady);
+			out.flush();
+			int partnerOutgoing = in.readInt();
+			int data = in.readUnsignedByte();
+			boolean ready = in.readBoolean();
+			update(partnerOutgoing, data, ready);
+		}
+	}
+
+	/** Run this machine, linked to one in another process, until it completes the given number
+	 *  of frames.  Returns false if it stopped early. */
+	public boolean runFrames(int frames) throws IOException {
+		long end = dmgcpu.frameCount + frames;
+		while (dmgcpu.frameCount < end) {
+			boolean completed = dmgcpu.runCycles(windowCycles);
+			sync();
+			if (!completed) return false;
+		}
+		return true;
+	}
+
+	/** Run two machines in this process, linked together, until the first one completes the
+	 *  given number of frames.  Each runs on its own thread, and they only wait for each other
+	 *  at the end of each window.  Returns false if either stopped early. */
+	public static boolean runFrames(final SerialLink[] ends, int frames) throws InterruptedException {
+		final long end = ends[0].dmgcpu.frameCount + frames;
+		final boolean[] stop = {false};
+		final boolean[] failed = {false};
+		final CyclicBarrier barrier = new CyclicBarrier(2, new Runnable() {
+			public void run() {
+				try {
+					ends[0].sync();
+				} catch (IOException e) {
+					// Can't happen in this process
+				}
+				stop[0] = failed[0] || (ends[0].dmgcpu.frameCount >= end);
+			}
+		});
+
+		Thread[] threads = new Thread[2];
+		for (int r = 0; r < 2; r++) {
+			final SerialLink link = ends[r];
+			threads[r] = new Thread("Link " + r) {
+				public void run() {
+					try {
+						while (!stop[0]) {
+							if (!link.dmgcpu.runCycles(link.windowCycles)) {
+								failed[0] = true;
+							}
+							barrier.await();
+						}
+					} catch (InterruptedException e) {
+						failed[0] = true;
+					} catch (BrokenBarrierException e) {
+						failed[0] = true;
+					}
+				}
+			};
+			threads[r].start();
+		}
+		for (int r = 0; r < 2; r++) {
+			threads[r].join();
+		}
+		return !failed[0];
+	}
+}
@@ -0,0 +1,168 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** This class publishes finished frames into a file mapped into memory, so that other
+ *  programs on the same machine can map the file and read frames without any copying
+ *  through sockets.  The file holds a ring of frame slots after a header, all in little
+ *  endian order:
+ *  <pre>
+ *  0   int   MAGIC ("JBFB")
+ *  4   int   VERSION
+ *  8   int   width
+ *  12  int   height
+ *  16  int   number of slots
+ *  20  int   bytes per slot
+ *  24  long  number of the last frame published, 0 before the first
+ *  64        slots
+ *  </pre>
+ *  Frame n goes in slot n % slots.  Each slot starts with a long sequence number, which is
+ *  2n - 1 while frame n is being written and 2n once it is complete, followed by the pixels
+ *  as 0x00RRGGBB ints.  A reader copies a slot and then reads its sequence number again: the
+ *  copy is good if the number was even and hasn't changed.  The writer never waits for
+ *  readers, it just moves on to the next slot, so a slow reader misses frames.
+ */
+class SharedFrameBuffer implements FrameSink {
+	static final int MAGIC = 0x4A424642;    // "JBFB"
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 64;
+	static final int LATEST_OFFSET = 24;
+	static final int SLOT_HEADER_SIZE = 16;
+
+	static final int DEFAULT_SLOTS = 4;
+
+	int width;
+	int height;
+	int slots;
+	int slotSize;
+
+	MappedByteBuffer buffer;
+
+	/** A view of the pixels in each slot */
+	IntBuffer[] slotPixels;
+
+	/** Written and read to keep the accesses to the file in order */
+	volatile int fence;
+
+	/** The frame being published with the alpha byte cleared */
+	int[] rgb;
+
+	public SharedFrameBuffer(String filename) throws IOException {
+		this(filename, ScanlineGraphicsChip.WIDTH, ScanlineGraphicsChip.HEIGHT, DEFAULT_SLOTS);
+	}
+
+	public SharedFrameBuffer(String filename, int width, int height, int slots) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.slots = slots;
+		slotSize = SLOT_HEADER_SIZE + width * height * 4;
+		rgb = new int[width * height];
+
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+		try {
+			file.setLength(0);
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * slotSize);
+		} finally {
+			file.close();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		slotPixels = new IntBuffer[slots];
+		for (int r = 0; r < slots; r++) {
+			buffer.clear();
+			buffer.position(slotOffset(r) + SLOT_HEADER_SIZE);
+			buffer.limit(slotOffset(r) + slotSize);
+			slotPixels[r] = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+		buffer.clear();
+
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, width);
+		buffer.putInt(12, height);
+		buffer.putInt(16, slots);
+		buffer.putInt(20, slotSize);
+		buffer.putLong(LATEST_OFFSET, 0);
+	}
+
+	final int slotOffset(int slot) {
+		return HEADER_SIZE + slot * slotSize;
+	}
+
+	/** Copy a frame into the next slot.  Frame numbers must start at 1 and go up.  The palettes
+	 *  give pixels an alpha byte of 0xFF, which is cleared to match the file format. */
+	public void frameFinished(int[] pixels, long frame) {
+		int slot = (int) (frame % slots);
+		int offset = slotOffset(slot);
+		int size = width * height;
+		for (int r = 0; r < size; r++) {
+			rgb[r] = pixels[r] & 0x00FFFFFF;
+		}
+
+		buffer.putLong(offset, frame * 2 - 1);
+		fullFence();
+		IntBuffer dest = slotPixels[slot];
+		dest.clear();
+		dest.put(rgb, 0, size);
+		fullFence();
+		buffer.putLong(offset, frame * 2);
+		fullFence();
+		buffer.putLong(LATEST_OFFSET, frame);
+	}
+
+	/** Stops loads and stores of the file on either side of this point from being moved past
+	 *  it.  Writing and then reading a volatile is a full barrier on every VM this runs on. */
+	final void fullFence() {
+		fence = 0;
+		if (fence != 0) {
+			fence = 0;
+		}
+	}
+
+	/** Copy the last frame published into pixels.  Returns its number, or 0 if no frame could be
+	 *  read, either because none has been published yet or because it was being overwritten.
+	 *  This is here for programs written in Java; others follow the same steps on the file. */
+	public long readLatest(int[] pixels) {
+		long frame = buffer.getLong(LATEST_OFFSET);
+		if (frame == 0) return 0;
+		int slot = (int) (frame % slots);
+		int offset = slotOffset(slot);
+
+		long before = buffer.getLong(offset);
+		if ((before & 1) != 0) return 0;
+		fullFence();
+		IntBuffer source = slotPixels[slot].duplicate();
+		source.clear();
+		source.get(pixels, 0, width * height);
+		fullFence();
+		if (buffer.getLong(offset) != before) return 0;
+		return before / 2;
+	}
+}
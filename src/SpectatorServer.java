@@ -0,0 +1,607 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.*;
+import java.net.*;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** This class is a small web server that lets browsers watch running emulators.  Each
+ *  emulator is added as a named stream, which is a FrameSink on its scanline renderer.
+ *  The page at / lists the streams, /view/&lt;name&gt; shows one, and the viewer gets the
+ *  frames over a WebSocket from /stream/&lt;name&gt;.
+ *
+ *  Each frame is encoded once, however many people are watching, and the same bytes are
+ *  queued for every viewer.  A frame is sent as the 8x8 tiles that have changed since the
+ *  frame before, with the pixels as indexes into the palette of colours seen so far:
+ *  <pre>
+ *  u8   0 for a key frame holding every tile, 1 for changed tiles only
+ *  u32  frame number
+ *  u16  number of palette entries, then that many RGB triples
+ *  u8   bits per pixel, 2 when there are 4 colours or fewer, otherwise 8
+ *  u16  number of tiles, then for each the tile number (row * 20 + column) and its
+ *       64 pixels, row by row, packed from the top bit down
+ *  </pre>
+ *  Numbers are big endian.  Each viewer has a queue of CLIENT_QUEUE frames.  When a viewer
+ *  can't keep up, frames that don't fit in its queue are dropped until the next key frame,
+ *  and once its queue has emptied the stream is asked to make the next frame a key frame.
+ */
+class SpectatorServer implements Runnable {
+	static final int DEFAULT_PORT = 8060;
+
+	/** Frames waiting to be sent to a viewer before it starts missing them */
+	static final int CLIENT_QUEUE = 4;
+
+	static final int TILES_X = ScanlineGraphicsChip.WIDTH / 8;
+	static final int TILES_Y = ScanlineGraphicsChip.HEIGHT / 8;
+	static final int TILES = TILES_X * TILES_Y;
+
+	static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+	ServerSocket serverSocket;
+	ExecutorService connections = Executors.newCachedThreadPool();
+	Thread acceptThread;
+	volatile boolean running = true;
+
+	LinkedHashMap<String, Stream> streams = new LinkedHashMap<String, Stream>();
+
+	/** Listen for browsers on the given port of this machine only */
+	public SpectatorServer(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		acceptThread = new Thread(this, "Spectator server");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/** Make an emulator's frames available under the given name */
+	public Stream addStream(String name, ScanlineGraphicsChip chip) {
+		Stream stream = new Stream(name);
+		synchronized (streams) {
+			streams.put(name, stream);
+		}
+		chip.addSink(stream);
+		return stream;
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/** Stop accepting connections and drop all of the viewers */
+	public void stop() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+		}
+		synchronized (streams) {
+			for (Stream stream : streams.values()) {
+				stream.closeAll();
+			}
+		}
+		connections.shutdown();
+	}
+
+	/** The accept thread */
+	public void run() {
+		while (running) {
+			try {
+				final Socket socket = serverSocket.accept();
+				connections.execute(new Runnable() {
+					public void run() {
+						handle(socket);
+					}
+				});
+			} catch (IOException e) {
+				if (running) {
+					System.out.println("Spectator server: " + e);
+				}
+			}
+		}
+	}
+
+	/** Answer one HTTP request.  WebSocket requests keep the connection, and this thread, until the viewer goes. */
+	final void handle(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+			String request = readLine(in);
+			String key = null;
+			String line;
+			while (((line = readLine(in)) != null) && (line.length() > 0)) {
+				int colon = line.indexOf(':');
+				if ((colon != -1) && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+					key = line.substring(colon + 1).trim();
+				}
+			}
+			String[] parts = request == null ? new String[0] : request.split(" ");
+			String path = parts.length > 1 ? URLDecoder.decode(parts[1], "UTF-8") : "";
+
+			if (path.startsWith("/stream/") && (key != null)) {
+				Stream stream = findStream(path.substring(8));
+				if (stream == null) {
+					respond(out, "404 Not Found", "text/plain", "No such stream");
+				} else {
+					out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+					           "Upgrade: websocket\r\n" +
+					           "Connection: Upgrade\r\n" +
+					           "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes("US-ASCII"));
+					out.flush();
+					new Client(stream, out).sendLoop();
+				}
+			} else if (path.startsWith("/view/") && (findStream(path.substring(6)) != null)) {
+				respond(out, "200 OK", "text/html", viewerPage(path.substring(6)));
+			} else if (path.equals("/")) {
+				respond(out, "200 OK", "text/html", indexPage());
+			} else {
+				respond(out, "404 Not Found", "text/plain", "Not found");
+			}
+		} catch (IOException e) {
+			// The browser went away
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	final Stream findStream(String name) {
+		synchronized (streams) {
+			return streams.get(name);
+		}
+	}
+
+	static final String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c == -1) {
+				return line.length() == 0 ? null : line.toString();
+			}
+			if (c != '\r') line.append((char) c);
+		}
+		return line.toString();
+	}
+
+	static final void respond(OutputStream out, String status, String type, String body) throws IOException {
+		byte[] content = body.getBytes("UTF-8");
+		out.write(("HTTP/1.1 " + status + "\r\nContent-Type: " + type + "; charset=utf-8\r\nContent-Length: " +
+		           content.length + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+		out.write(content);
+		out.flush();
+	}
+
+	/** The Sec-WebSocket-Accept value for a key sent by a browser */
+	static final String acceptKey(String key) throws IOException {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			byte[] hash = sha1.digest((key + WEBSOCKET_GUID).getBytes("US-ASCII"));
+			return base64(hash);
+		} catch (java.security.NoSuchAlgorithmException e) {
+			throw new IOException("No SHA-1");
+		}
+	}
+
+	static final String BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+	/** Encode bytes in Base64, with padding */
+	static final String base64(byte[] data) {
+		StringBuilder s = new StringBuilder();
+		for (int r = 0; r < data.length; r += 3) {
+			int bytes = Math.min(data.length - r, 3);
+			int group = (data[r] & 0xFF) << 16;
+			if (bytes > 1) group |= (data[r + 1] & 0xFF) << 8;
+			if (bytes > 2) group |= data[r + 2] & 0xFF;
+			for (int i = 0; i < 4; i++) {
+				s.append(i <= bytes ? BASE64_DIGITS.charAt((group >> (18 - i * 6)) & 0x3F) : '=');
+			}
+		}
+		return s.toString();
+	}
+
+	final String indexPage() {
+		StringBuilder page = new StringBuilder("<!DOCTYPE html><html><head><title>JavaBoy</title></head><body><h1>JavaBoy</h1><ul>");
+		synchronized (streams) {
+			for (String name : streams.keySet()) {
+				String escaped = escape(name);
+				page.append("<li><a href=\"/view/").append(escaped).append("\">").append(escaped).append("</a></li>");
+			}
+		}
+		return page.append("</ul></body></html>").toString();
+	}
+
+	final String viewerPage(String name) {
+		return "<!DOCTYPE html><html><head><title>JavaBoy - " + escape(name) + "</title></head>" +
+		       "<body style=\"background:#222;color:#ccc;font-family:sans-serif\">" +
+		       "<canvas id=\"screen\" width=\"160\" height=\"144\" style=\"width:480px;height:432px;image-rendering:pixelated\"></canvas>" +
+		       "<p id=\"status\">Connecting</p><script>\n" +
+		       "var name = " + quote(name) + ";\n" +
+		       "var ctx = document.getElementById('screen').getContext('2d');\n" +
+		       "var image = ctx.createImageData(160, 144);\n" +
+		       "var keyed = false;\n" +
+		       "var ws = new WebSocket('ws://' + location.host + '/stream/' + encodeURIComponent(name));\n" +
+		       "ws.binaryType = 'arraybuffer';\n" +
+		       "ws.onclose = function() { document.getElementById('status').textContent = 'Disconnected'; };\n" +
+		       "ws.onmessage = function(e) {\n" +
+		       "  var v = new DataView(e.data), p = 0;\n" +
+		       "  var type = v.getUint8(p); p += 1;\n" +
+		       "  if (type == 0) keyed = true; else if (!keyed) return;\n" +
+		       "  var frame = v.getUint32(p); p += 4;\n" +
+		       "  var colours = v.getUint16(p); p += 2;\n" +
+		       "  var palette = [];\n" +
+		       "  for (var i = 0; i < colours; i++) { palette.push([v.getUint8(p), v.getUint8(p + 1), v.getUint8(p + 2)]); p += 3; }\n" +
+		       "  var bits = v.getUint8(p); p += 1;\n" +
+		       "  var tiles = v.getUint16(p); p += 2;\n" +
+		       "  var d = image.data;\n" +
+		       "  for (var t = 0; t < tiles; t++) {\n" +
+		       "    var tile = v.getUint16(p); p += 2;\n" +
+		       "    var x0 = (tile % 20) * 8, y0 = Math.floor(tile / 20) * 8;\n" +
+		       "    for (var i = 0; i < 64; i++) {\n" +
+		       "      var c;\n" +
+		       "      if (bits == 2) c = (v.getUint8(p + (i >> 2)) >> (6 - ((i & 3) << 1))) & 3; else c = v.getUint8(p + i);\n" +
+		       "      var o = ((y0 + (i >> 3)) * 160 + x0 + (i & 7)) * 4, rgb = palette[c];\n" +
+		       "      d[o] = rgb[0]; d[o + 1] = rgb[1]; d[o + 2] = rgb[2]; d[o + 3] = 255;\n" +
+		       "    }\n" +
+		       "    p += bits * 8;\n" +
+		       "  }\n" +
+		       "  ctx.putImageData(image, 0, 0);\n" +
+		       "  document.getElementById('status').textContent = 'Frame ' + frame;\n" +
+		       "};\n" +
+		       "</script></body></html>";
+	}
+
+	static final String escape(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	/** A JavaScript string literal holding s */
+	static final String quote(String s) {
+		StringBuilder q = new StringBuilder("\"");
+		for (int r = 0; r < s.length(); r++) {
+			char c = s.charAt(r);
+			if ((c < 0x20) || (c == '"') || (c == '\\') || (c == '<') || (c > 0x7E)) {
+				String hex = Integer.toHexString(c);
+				q.append("\\u").append("0000".substring(hex.length())).append(hex);
+			} else {
+				q.append(c);
+			}
+		}
+		return q.append('"').toString();
+	}
+
+	/** The frames of one emulator, encoded once for all of the viewers watching it */
+	class Stream implements FrameSink {
+		String name;
+
+		/** Copy on write, so the render thread can go through it without locking */
+		volatile Client[] clients = new Client[0];
+
+		/** Set by a viewer that has missed frames, to have the next frame sent whole */
+		volatile boolean keyRequested = true;
+
+		int[] palette = new int[256];
+		int paletteSize = 0;
+		int lastColour = -1;
+		int lastIndex = 0;
+
+		/** Palette index of each pixel of this frame and the one before */
+		byte[] indexes = new byte[ScanlineGraphicsChip.WIDTH * ScanlineGraphicsChip.HEIGHT];
+		byte[] lastIndexes = new byte[ScanlineGraphicsChip.WIDTH * ScanlineGraphicsChip.HEIGHT];
+
+		/** The message being built.  It is big enough for a key frame at 8 bits per pixel. */
+		byte[] message = new byte[10 + 256 * 3 + TILES * 66];
+
+		// Counts, for seeing how the encoding does
+		volatile long framesEncoded = 0;
+		volatile long bytesEncoded = 0;
+
+		Stream(String name) {
+			this.name = name;
+		}
+
+		synchronized void addClient(Client client) {
+			Client[] newClients = new Client[clients.length + 1];
+			System.arraycopy(clients, 0, newClients, 0, clients.length);
+			newClients[clients.length] = client;
+			clients = newClients;
+			keyRequested = true;
+		}
+
+		synchronized void removeClient(Client client) {
+			int found = -1;
+			for (int r = 0; r < clients.length; r++) {
+				if (clients[r] == client) found = r;
+			}
+			if (found == -1) return;
+			Client[] newClients = new Client[clients.length - 1];
+			System.arraycopy(clients, 0, newClients, 0, found);
+			System.arraycopy(clients, found + 1, newClients, found, newClients.length - found);
+			clients = newClients;
+		}
+
+		void closeAll() {
+			Client[] all = clients;
+			for (int r = 0; r < all.length; r++) {
+				all[r].close();
+			}
+		}
+
+		/** Called on the render thread.  Encodes the frame if anyone is watching and queues it for them. */
+		public void frameFinished(int[] pixels, long frame) {
+			Client[] watching = clients;
+			if (watching.length == 0) return;
+
+			boolean key = keyRequested;
+			keyRequested = false;
+			if (!index(pixels)) {
+				key = true;
+			}
+			byte[] encoded = encode(frame, key);
+			framesEncoded++;
+			bytesEncoded += encoded.length;
+
+			for (int r = 0; r < watching.length; r++) {
+				watching[r].send(encoded, key);
+			}
+
+			byte[] swap = lastIndexes;
+			lastIndexes = indexes;
+			indexes = swap;
+		}
+
+		/** Turn the pixels into palette indexes.  Returns false if the palette filled up and had
+		 *  to be started again, which means the frame must be a key frame.  It is only started
+		 *  again once a frame.  If the frame has more colours than the palette holds, those that
+		 *  don't fit are drawn with the nearest colour in the palette. */
+		final boolean index(int[] pixels) {
+			boolean kept = true;
+			for (int r = 0; r < pixels.length; r++) {
+				int colour = pixels[r] & 0xFFFFFF;
+				if (colour != lastColour) {
+					int found = -1;
+					for (int p = 0; p < paletteSize; p++) {
+						if (palette[p] == colour) {
+							found = p;
+							break;
+						}
+					}
+					if (found == -1) {
+						if (paletteSize < palette.length) {
+							found = paletteSize;
+							palette[paletteSize++] = colour;
+						} else if (kept) {
+							paletteSize = 0;
+							kept = false;
+							r = -1;
+							lastColour = -1;
+							continue;
+						} else {
+							found = nearest(colour);
+						}
+					}
+					lastColour = colour;
+					lastIndex = found;
+				}
+				indexes[r] = (byte) lastIndex;
+			}
+			return kept;
+		}
+
+		/** Returns the palette entry closest to an RGB colour */
+		final int nearest(int colour) {
+			int best = 0;
+			int bestDistance = Integer.MAX_VALUE;
+			for (int p = 0; p < paletteSize; p++) {
+				int red = ((palette[p] >> 16) & 0xFF) - ((colour >> 16) & 0xFF);
+				int green = ((palette[p] >> 8) & 0xFF) - ((colour >> 8) & 0xFF);
+				int blue = (palette[p] & 0xFF) - (colour & 0xFF);
+				int distance = red * red + green * green + blue * blue;
+				if (distance < bestDistance) {
+					best = p;
+					bestDistance = distance;
+				}
+			}
+			return best;
+		}
+
+		/** Build the message for the frame, holding every tile or just those that changed */
+		final byte[] encode(long frame, boolean key) {
+			int bits = paletteSize <= 4 ? 2 : 8;
+			byte[] m = message;
+			int pos = 0;
+			m[pos++] = (byte) (key ? 0 : 1);
+			pos = putInt(m, pos, (int) frame);
+			pos = putShort(m, pos, paletteSize);
+			for (int r = 0; r < paletteSize; r++) {
+				m[pos++] = (byte) (palette[r] >> 16);
+				m[pos++] = (byte) (palette[r] >> 8);
+				m[pos++] = (byte) palette[r];
+			}
+			m[pos++] = (byte) bits;
+			int countPos = pos;
+			pos += 2;
+
+			int tiles = 0;
+			for (int tile = 0; tile < TILES; tile++) {
+				int start = (tile / TILES_X) * 8 * ScanlineGraphicsChip.WIDTH + (tile % TILES_X) * 8;
+				if (!key && !tileChanged(start)) continue;
+				tiles++;
+				pos = putShort(m, pos, tile);
+				for (int y = 0; y < 8; y++) {
+					int offset = start + y * ScanlineGraphicsChip.WIDTH;
+					if (bits == 2) {
+						m[pos++] = (byte) ((indexes[offset] << 6) | (indexes[offset + 1] << 4) | (indexes[offset + 2] << 2) | indexes[offset + 3]);
+						m[pos++] = (byte) ((indexes[offset + 4] << 6) | (indexes[offset + 5] << 4) | (indexes[offset + 6] << 2) | indexes[offset + 7]);
+					} else {
+						System.arraycopy(indexes, offset, m, pos, 8);
+						pos += 8;
+					}
+				}
+			}
+			putShort(m, countPos, tiles);
+
+			byte[] encoded = new byte[pos];
+			System.arraycopy(m, 0, encoded, 0, pos);
+			return encoded;
+		}
+
+		final boolean tileChanged(int start) {
+			for (int y = 0; y < 8; y++) {
+				int offset = start + y * ScanlineGraphicsChip.WIDTH;
+				for (int x = 0; x < 8; x++) {
+					if (indexes[offset + x] != lastIndexes[offset + x]) return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	static final int putInt(byte[] b, int pos, int value) {
+		b[pos] = (byte) (value >> 24);
+		b[pos + 1] = (byte) (value >> 16);
+		b[pos + 2] = (byte) (value >> 8);
+		b[pos + 3] = (byte) value;
+		return pos + 4;
+	}
+
+	static final int putShort(byte[] b, int pos, int value) {
+		b[pos] = (byte) (value >> 8);
+		b[pos + 1] = (byte) value;
+		return pos + 2;
+	}
+
+	/** A browser watching a stream.  Its connection thread sends the frames queued for it. */
+	class Client {
+		Stream stream;
+		OutputStream out;
+		ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(CLIENT_QUEUE);
+
+		/** Set until the first key frame, and after frames have been dropped until the next one.
+		 *  Only used by the render thread. */
+		boolean needKey = true;
+		volatile boolean open = true;
+		volatile long framesDropped = 0;
+		byte[] header = new byte[10];
+
+		Client(Stream stream, OutputStream out) {
+			this.stream = stream;
+			this.out = out;
+		}
+
+		/** Called on the render thread with each encoded frame */
+		final void send(byte[] encoded, boolean key) {
+			if (needKey && !key) {
+				// Only ask for a key frame once the frames already queued have gone, so that
+				// a viewer that has stopped reading doesn't make every frame a key frame
+				if (queue.isEmpty()) {
+					stream.keyRequested = true;
+				}
+				framesDropped++;
+				return;
+			}
+			if (queue.offer(encoded)) {
+				needKey = false;
+			} else {
+				framesDropped++;
+				needKey = true;
+			}
+		}
+
+		/** Send frames until the connection breaks or the server stops */
+		final void sendLoop() throws IOException {
+			stream.addClient(this);
+			try {
+				while (open) {
+					byte[] encoded;
+					try {
+						encoded = queue.poll(1, java.util.concurrent.TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						break;
+					}
+					if (encoded != null) {
+						writeFrame(encoded);
+					}
+				}
+			} finally {
+				stream.removeClient(this);
+			}
+		}
+
+		/** Send a binary WebSocket message */
+		final void writeFrame(byte[] data) throws IOException {
+			int length = 0;
+			header[length++] = (byte) 0x82;
+			if (data.length < 126) {
+				header[length++] = (byte) data.length;
+			} else if (data.length < 0x10000) {
+				header[length++] = 126;
+				length = putShort(header, length, data.length);
+			} else {
+				header[length++] = 127;
+				length = putInt(header, length, 0);
+				length = putInt(header, length, data.length);
+			}
+			out.write(header, 0, length);
+			out.write(data);
+			out.flush();
+		}
+
+		void close() {
+			open = false;
+		}
+	}
+
+	/** Run a ROM at normal speed for anyone to watch at http://localhost:&lt;port&gt;/ */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: java SpectatorServer <rom file> [port]");
+			System.exit(1);
+		}
+		Dmgcpu dmgcpu = new Dmgcpu(null, Dmgcpu.loadRom(args[0]));
+		ScanlineGraphicsChip chip = new ScanlineGraphicsChip(null, dmgcpu);
+		dmgcpu.graphicsChip = chip;
+		SpectatorServer server = new SpectatorServer(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+		String name = new File(args[0]).getName();
+		server.addStream(name, chip);
+		System.out.println("Watch at http://localhost:" + server.getPort() + "/view/" + name);
+
+		dmgcpu.reset();
+		long next = System.nanoTime();
+		while (true) {
+			dmgcpu.runFrames(1);
+			next += GameboyCanvas.FRAME_NANOS;
+			long wait = next - System.nanoTime();
+			if (wait > 0) {
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			} else {
+				next = System.nanoTime();
+			}
+		}
+	}
+}
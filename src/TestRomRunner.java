@@ -0,0 +1,312 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** This class runs test ROMs, such as Blargg's CPU tests, headless and as fast as possible,
+ *  several at once.  Each ROM's serial output is captured, and it passes or fails when the
+ *  output says "Passed" or "Failed".  ROMs that report through cartridge RAM instead (a
+ *  status byte at A000 and the signature DE B0 61 at A001) are understood too.  A ROM that
+ *  does neither within the time limit has timed out, and one that runs an opcode the CPU
+ *  doesn't know is stopped and reported with the opcode.  The results can be written as
+ *  a JUnit style XML report.
+ *
+ *  Run with: java TestRomRunner [-threads n] [-timeout seconds] [-report file.xml]
+ *                               [-recompiler] &lt;directory or ROM files&gt;
+ */
+class TestRomRunner {
+	static final int PASSED = 0;
+	static final int FAILED = 1;
+	static final int TIMED_OUT = 2;
+	static final int UNKNOWN_OPCODE = 3;
+
+	static final String[] STATUS_NAMES = {"passed", "failed", "timed out", "unknown opcode"};
+
+	/** Emulated seconds a ROM gets to report a result */
+	static final int DEFAULT_TIMEOUT = 120;
+
+	/** Frames run between checks for a result */
+	static final int CHECK_FRAMES = 30;
+
+	static final int FRAMES_PER_SECOND = 60;
+
+	int timeoutSeconds = DEFAULT_TIMEOUT;
+	boolean recompiler = false;
+
+	/** Collects the bytes a ROM sends out of the serial port */
+	static class SerialCapture extends SerialLink {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		SerialCapture(Dmgcpu dmgcpu) {
+			super(dmgcpu, 0);
+		}
+
+		void transferStarted(int data) {
+			output.write(data);
+		}
+
+		String text() {
+			try {
+				return output.toString("ISO-8859-1");
+			} catch (UnsupportedEncodingException e) {
+				return output.toString();
+			}
+		}
+	}
+
+	/** What happened when a ROM was run */
+	static class Result {
+		String name;
+		int status;
+		String message;
+		String output;
+		long frames;
+		long millis;
+	}
+
+	/** Run one ROM until it reports a result, times out or stops */
+	public Result run(File file) throws IOException {
+		Result result = new Result();
+		result.name = file.getName();
+		long start = System.currentTimeMillis();
+
+		byte[] rom = Dmgcpu.loadRom(file.getPath());
+		Dmgcpu dmgcpu = new Dmgcpu(null, rom);
+		dmgcpu.setRecompilerEnabled(recompiler);
+		SerialCapture serial = new SerialCapture(dmgcpu);
+		dmgcpu.reset();
+
+		long frameLimit = (long) timeoutSeconds * FRAMES_PER_SECOND;
+		result.status = TIMED_OUT;
+		result.message = "No result after " + timeoutSeconds + " seconds";
+		while (dmgcpu.frameCount < frameLimit) {
+			boolean completed = dmgcpu.runFrames(CHECK_FRAMES);
+			String text = serial.text();
+			if (text.indexOf("Passed") != -1) {
+				result.status = PASSED;
+				result.message = "Passed";
+				break;
+			} else if (text.indexOf("Failed") != -1) {
+				result.status = FAILED;
+				result.message = "Failed";
+				break;
+			} else if (checkCartridgeRam(dmgcpu, result)) {
+				break;
+			} else if (!completed && (dmgcpu.unknownOpcode != -1)) {
+				result.status = UNKNOWN_OPCODE;
+				result.message = "Unknown opcode " + Profiler.hex(dmgcpu.unknownOpcode, 2) + " at " +
+				                 Profiler.hex(dmgcpu.unknownOpcodePc, 4);
+				break;
+			}
+		}
+
+		result.output = serial.text();
+		if ((result.output.length() == 0) && (dmgcpu.memory[0xA004] != 0)) {
+			result.output = cartridgeText(dmgcpu);
+		}
+		if (file.length() > 0x8000) {
+			result.message += " (only the first 32K of the " + (file.length() / 1024) + "K ROM was loaded)";
+		}
+		result.frames = dmgcpu.frameCount;
+		result.millis = System.currentTimeMillis() - start;
+		return result;
+	}
+
+	/** Returns true if the ROM has finished and reported through cartridge RAM */
+	static final boolean checkCartridgeRam(Dmgcpu dmgcpu, Result result) {
+		byte[] memory = dmgcpu.memory;
+		if ((memory[0xA001] != (byte) 0xDE) || (memory[0xA002] != (byte) 0xB0) || (memory[0xA003] != (byte) 0x61)) {
+			return false;
+		}
+		int status = JavaBoy.unsign(memory[0xA000]);
+		if (status == 0x80) return false;       // Still running
+		result.status = status == 0 ? PASSED : FAILED;
+		result.message = status == 0 ? "Passed" : "Failed with code " + status;
+		return true;
+	}
+
+	/** The zero terminated text a ROM has written at A004 */
+	static final String cartridgeText(Dmgcpu dmgcpu) {
+		StringBuilder text = new StringBuilder();
+		for (int addr = 0xA004; (addr < 0xC000) && (dmgcpu.memory[addr] != 0); addr++) {
+			text.append((char) JavaBoy.unsign(dmgcpu.memory[addr]));
+		}
+		return text.toString();
+	}
+
+	/** Run all of the ROMs on a pool of threads.  The results are in the same order as the files. */
+	public List<Result> runAll(List<File> files, int threads) throws InterruptedException, IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		for (int r = 0; r < files.size(); r++) {
+			final File file = files.get(r);
+			futures.add(executor.submit(new Callable<Result>() {
+				public Result call() throws IOException {
+					return run(file);
+				}
+			}));
+		}
+		List<Result> results = new ArrayList<Result>();
+		try {
+			for (int r = 0; r < futures.size(); r++) {
+				results.add(futures.get(r).get());
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return results;
+	}
+
+	/** Write the results as a JUnit style XML report */
+	static void writeReport(List<Result> results, String suiteName, Writer out) throws IOException {
+		int failures = 0;
+		int errors = 0;
+		long millis = 0;
+		for (int r = 0; r < results.size(); r++) {
+			Result result = results.get(r);
+			if (result.status == FAILED) failures++;
+			if ((result.status == TIMED_OUT) || (result.status == UNKNOWN_OPCODE)) errors++;
+			millis += result.millis;
+		}
+
+		PrintWriter p = new PrintWriter(out);
+		p.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		p.println("<testsuite name=\"" + xml(suiteName) + "\" tests=\"" + results.size() + "\" failures=\"" + failures +
+		          "\" errors=\"" + errors + "\" time=\"" + seconds(millis) + "\">");
+		for (int r = 0; r < results.size(); r++) {
+			Result result = results.get(r);
+			p.print("  <testcase classname=\"" + xml(suiteName) + "\" name=\"" + xml(result.name) + "\" time=\"" +
+			        seconds(result.millis) + "\">");
+			if (result.status == FAILED) {
+				p.print("<failure message=\"" + xml(result.message) + "\"/>");
+			} else if (result.status != PASSED) {
+				p.print("<error type=\"" + STATUS_NAMES[result.status] + "\" message=\"" + xml(result.message) + "\"/>");
+			}
+			p.print("<system-out>" + xml(result.output) + "</system-out>");
+			p.println("</testcase>");
+		}
+		p.println("</testsuite>");
+		p.flush();
+	}
+
+	static final String seconds(long millis) {
+		return (millis / 1000) + "." + Long.toString(1000 + millis % 1000).substring(1);
+	}
+
+	/** Escape text for XML, dropping control characters that XML 1.0 can't hold */
+	static final String xml(String s) {
+		StringBuilder escaped = new StringBuilder();
+		for (int r = 0; r < s.length(); r++) {
+			char c = s.charAt(r);
+			switch (c) {
+			case '<' :  escaped.append("&lt;");   break;
+			case '>' :  escaped.append("&gt;");   break;
+			case '&' :  escaped.append("&amp;");  break;
+			case '"' :  escaped.append("&quot;"); break;
+			default :
+				if ((c >= 0x20) || (c == '\n') || (c == '\t')) {
+					escaped.append(c);
+				}
+				break;
+			}
+		}
+		return escaped.toString();
+	}
+
+	/** The ROMs named on the command line, with directories replaced by the ROMs in them */
+	static List<File> findRoms(List<String> names) {
+		List<File> files = new ArrayList<File>();
+		for (int r = 0; r < names.size(); r++) {
+			File file = new File(names.get(r));
+			if (file.isDirectory()) {
+				File[] contents = file.listFiles();
+				Arrays.sort(contents);
+				for (int f = 0; f < contents.length; f++) {
+					String name = contents[f].getName().toLowerCase();
+					if (contents[f].isFile() && (name.endsWith(".gb") || name.endsWith(".gbc"))) {
+						files.add(contents[f]);
+					}
+				}
+			} else {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	public static void main(String[] args) throws Exception {
+		TestRomRunner runner = new TestRomRunner();
+		int threads = Runtime.getRuntime().availableProcessors();
+		String report = null;
+		List<String> names = new ArrayList<String>();
+		for (int r = 0; r < args.length; r++) {
+			if (args[r].equals("-threads")) {
+				threads = Integer.parseInt(args[++r]);
+			} else if (args[r].equals("-timeout")) {
+				runner.timeoutSeconds = Integer.parseInt(args[++r]);
+			} else if (args[r].equals("-report")) {
+				report = args[++r];
+			} else if (args[r].equals("-recompiler")) {
+				runner.recompiler = true;
+			} else {
+				names.add(args[r]);
+			}
+		}
+		List<File> files = findRoms(names);
+		if (files.isEmpty()) {
+			System.out.println("Usage: java TestRomRunner [-threads n] [-timeout seconds] [-report file.xml] [-recompiler] <directory or ROM files>");
+			System.exit(2);
+		}
+
+		long start = System.currentTimeMillis();
+		List<Result> results = runner.runAll(files, threads);
+		int passed = 0;
+		for (int r = 0; r < results.size(); r++) {
+			Result result = results.get(r);
+			if (result.status == PASSED) passed++;
+			System.out.println(result.name + ": " + result.message + " (" + result.frames + " frames, " + result.millis + "ms)");
+		}
+		System.out.println(passed + " of " + results.size() + " passed in " + (System.currentTimeMillis() - start) + "ms");
+
+		if (report != null) {
+			Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report), "UTF-8"));
+			try {
+				writeReport(results, "TestRomRunner" + (runner.recompiler ? ".recompiler" : ""), w);
+			} finally {
+				w.close();
+			}
+		}
+		System.exit(passed == results.size() ? 0 : 1);
+	}
+}
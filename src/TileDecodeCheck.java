@@ -0,0 +1,64 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+/** This class checks that GraphicsChip.decodeRow() gives the same colour numbers as decoding
+ *  each pixel with a mask and shift, as the renderers used to.  Every pair of bitplane bytes
+ *  is tried, with and without the tile flipped horizontally.  Exits with status 1 if any pixel
+ *  differs.
+ *
+ *  Run with: java TileDecodeCheck
+ */
+class TileDecodeCheck {
+	public static void main(String[] args) {
+		int failed = 0;
+		for (int flip = 0; flip < 2; flip++) {
+			int[] spread = (flip == 1) ? GraphicsChip.PLANE_SPREAD_FLIPPED : GraphicsChip.PLANE_SPREAD;
+			for (int lower = 0; lower < 256; lower++) {
+				for (int upper = 0; upper < 256; upper++) {
+					int row = GraphicsChip.decodeRow((byte) lower, (byte) upper, spread);
+					for (int x = 0; x < 8; x++) {
+						int colour = (row >> (14 - x * 2)) & 0x03;
+						int expected = pixelColour(lower, upper, (flip == 1) ? 7 - x : x);
+						if (colour != expected) {
+							failed++;
+							if (failed <= 10) {
+								System.out.println("Bytes " + Profiler.hex(lower, 2) + " " + Profiler.hex(upper, 2) +
+								                   (flip == 1 ? " flipped" : "") + ", pixel " + x + ": " + colour +
+								                   ", expected " + expected);
+							}
+						}
+					}
+				}
+			}
+		}
+		System.out.println("Rows decoded: " + 2 * 256 * 256 + ", pixels differing: " + failed);
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	/** The colour number of pixel px in a tile row, decoded one bit at a time */
+	static int pixelColour(int lower, int upper, int px) {
+		int pixelColorLower = (lower & (0x80 >> px)) >> (7 - px);
+		int pixelColorUpper = (upper & (0x80 >> px)) >> (7 - px);
+		return (pixelColorUpper * 2) + pixelColorLower;
+	}
+}
@@ -0,0 +1,472 @@
+/*
+
+JavaBoy
+                                  
+COPYRIGHT (C) 2001 Neil Millstone and The Victoria University of Manchester
+                                                                         ;;;
+This program is free software; you can redistribute it and/or modify it
+under the terms of the GNU General Public License as published by the Free
+Software Foundation; either version 2 of the License, or (at your option)
+any later version.        
+
+This program is distributed in the hope that it will be useful, but WITHOUT
+ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+more details.
+
+
+You should have received a copy of the GNU General Public License along with
+this program; if not, write to the Free Software Foundation, Inc., 59 Temple
+Place - Suite 330, Boston, MA 02111-1307, USA.
+
+*/
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/** This class records the frames drawn by the scanline renderer.  The render thread copies
+ *  each frame into one of a fixed set of buffers and queues it, and a thread of its own
+ *  encodes the queued frames to the file, so encoding never holds up emulation.  When every
+ *  buffer is in use the frame is either dropped or the render thread waits for a buffer,
+ *  depending on dropWhenFull.  A frame that is the same as the one before it isn't copied.
+ *  In an APNG that just lengthens the previous frame, and no PNG file is written for it.  Raw
+ *  and Y4M files play at a fixed rate, so the encoder writes the bytes of the previous frame
+ *  again.
+ *
+ *  The formats are:
+ *  <ul>
+ *  <li>FORMAT_RAW - RGB bytes, 160x144 per frame, with no header</li>
+ *  <li>FORMAT_Y4M - YUV4MPEG2 in 4:4:4, at the Game Boy's frame rate</li>
+ *  <li>FORMAT_PNG - a PNG file for each frame, numbered by the frame</li>
+ *  <li>FORMAT_APNG - a single animated PNG</li>
+ *  </ul>
+ *
+ *  Run headless with: java VideoCapture &lt;rom file&gt; &lt;frames&gt; &lt;output file&gt;
+ */
+class VideoCapture implements FrameSink, Runnable {
+	static final int FORMAT_RAW = 0;
+	static final int FORMAT_Y4M = 1;
+	static final int FORMAT_PNG = 2;
+	static final int FORMAT_APNG = 3;
+
+	static final int WIDTH = ScanlineGraphicsChip.WIDTH;
+	static final int HEIGHT = ScanlineGraphicsChip.HEIGHT;
+
+	/** The Game Boy shows 4194304 / 70224 frames per second */
+	static final int FRAME_RATE_NUM = 4194304;
+	static final int FRAME_RATE_DEN = 70224;
+
+	static final int DEFAULT_BUFFERS = 16;
+
+	static final byte[] Y4M_FRAME = {'F', 'R', 'A', 'M', 'E', '\n'};
+	static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+	/** A frame waiting to be encoded */
+	static class Frame {
+		int[] pixels = new int[WIDTH * HEIGHT];
+		long number;
+		/** True if the pixels weren't copied because they are the same as the last frame queued */
+		boolean repeat;
+	}
+
+	/** Queued after the last frame to stop the encoder */
+	static final Frame END = new Frame();
+
+	int format;
+	String filename;
+	boolean dropWhenFull;
+	boolean deduplicate = true;
+
+	ArrayBlockingQueue<Frame> free;
+	ArrayBlockingQueue<Frame> queued;
+
+	/** The last frame queued, to spot repeats.  Only used by the render thread. */
+	int[] lastPixels = new int[WIDTH * HEIGHT];
+	boolean haveLast = false;
+
+	volatile boolean closed = false;
+	volatile long lastFrameNumber;
+
+	// Counts, for showing how well the encoder is keeping up
+	volatile long framesQueued = 0;
+	volatile long framesDropped = 0;
+	volatile long framesRepeated = 0;
+	volatile long framesWritten = 0;
+
+	Thread encoderThread;
+	/** The first error the encoder had.  Frames are thrown away after one. */
+	IOException error = null;
+
+	// Encoder state
+	OutputStream out;
+	/** The last raw or Y4M frame written, kept to write again for repeats */
+	byte[] planes = new byte[WIDTH * HEIGHT * 3];
+	byte[] scanlines = new byte[(WIDTH * 3 + 1) * HEIGHT];
+	byte[] compressed = new byte[scanlines.length + 1024];
+	Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+	CRC32 crc = new CRC32();
+	byte[] chunkHeader = new byte[8];
+	int apngSequence = 0;
+	int apngFrames = 0;
+	int[] heldPixels = new int[WIDTH * HEIGHT];
+	long heldNumber = -1;
+
+	public VideoCapture(String filename, int format) throws IOException {
+		this(filename, format, DEFAULT_BUFFERS, true);
+	}
+
+	public VideoCapture(String filename, int format, int buffers, boolean dropWhenFull) throws IOException {
+		this.filename = filename;
+		this.format = format;
+		this.dropWhenFull = dropWhenFull;
+		free = new ArrayBlockingQueue<Frame>(buffers);
+		queued = new ArrayBlockingQueue<Frame>(buffers + 1);
+		for (int r = 0; r < buffers; r++) {
+			free.add(new Frame());
+		}
+
+		if (format != FORMAT_PNG) {
+			out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+		}
+		if (format == FORMAT_Y4M) {
+			out.write(("YUV4MPEG2 W" + WIDTH + " H" + HEIGHT + " F" + FRAME_RATE_NUM + ":" + FRAME_RATE_DEN +
+			           " Ip A1:1 C444\n").getBytes("US-ASCII"));
+		} else if (format == FORMAT_APNG) {
+			out.write(PNG_SIGNATURE);
+			writeHeaderChunk(out);
+			byte[] animation = new byte[8];     // Frame count is filled in by close()
+			writeChunk(out, "acTL", animation, 0, 8);
+		}
+
+		encoderThread = new Thread(this, "Video capture");
+		encoderThread.setDaemon(true);
+		encoderThread.start();
+	}
+
+	/** Returns the format to use for a file name, going by its extension */
+	public static int formatFor(String filename) {
+		String name = filename.toLowerCase();
+		if (name.endsWith(".y4m")) return FORMAT_Y4M;
+		if (name.endsWith(".apng")) return FORMAT_APNG;
+		if (name.endsWith(".png")) return FORMAT_PNG;
+		return FORMAT_RAW;
+	}
+
+	/** Called on the render thread with each finished frame */
+	public void frameFinished(int[] pixels, long frame) {
+		if (closed) return;
+		lastFrameNumber = frame;
+		boolean repeat = deduplicate && haveLast && Arrays.equals(pixels, lastPixels);
+		if (repeat) {
+			framesRepeated++;
+			if ((format == FORMAT_PNG) || (format == FORMAT_APNG)) return;
+		}
+
+		Frame f = freeFrame();
+		if (f == null) {
+			framesDropped++;
+			return;
+		}
+		if (!repeat) {
+			System.arraycopy(pixels, 0, f.pixels, 0, WIDTH * HEIGHT);
+		}
+		f.number = frame;
+		f.repeat = repeat;
+		queued.add(f);
+		framesQueued++;
+
+		if (deduplicate && !repeat) {
+			System.arraycopy(pixels, 0, lastPixels, 0, WIDTH * HEIGHT);
+			haveLast = true;
+		}
+	}
+
+	/** Returns a free buffer, or null if there isn't one and dropWhenFull is set.  Otherwise
+	 *  waits for one, giving up if the capture is closed while waiting. */
+	final Frame freeFrame() {
+		if (dropWhenFull) {
+			return free.poll();
+		}
+		while (!closed) {
+			try {
+				Frame f = free.poll(100, TimeUnit.MILLISECONDS);
+				if (f != null) return f;
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/** The encoder thread.  Writes frames as they are queued. */
+	public void run() {
+		while (true) {
+			Frame f;
+			try {
+				f = queued.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (f == END) return;
+			if (error == null) {
+				try {
+					if (f.repeat) {
+						encodeRepeat();
+					} else {
+						encode(f.pixels, f.number);
+					}
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+			free.add(f);
+		}
+	}
+
+	/** Stop capturing, write out the frames still queued and finish the file */
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		while (true) {
+			try {
+				queued.put(END);
+				encoderThread.join();
+				break;
+			} catch (InterruptedException e) {
+			}
+		}
+		if (error == null) {
+			try {
+				finish();
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		if (out != null) {
+			out.close();
+		}
+		if (error == null) {
+			if (format == FORMAT_APNG) {
+				setApngFrameCount();
+			}
+		} else {
+			throw error;
+		}
+	}
+
+	final void encode(int[] pixels, long number) throws IOException {
+		switch (format) {
+		case FORMAT_RAW :
+			int pos = 0;
+			for (int r = 0; r < WIDTH * HEIGHT; r++) {
+				int rgb = pixels[r];
+				planes[pos++] = (byte) (rgb >> 16);
+				planes[pos++] = (byte) (rgb >> 8);
+				planes[pos++] = (byte) rgb;
+			}
+			out.write(planes);
+			break;
+		case FORMAT_Y4M :
+			writeYuv(pixels);
+			break;
+		case FORMAT_PNG :
+			OutputStream file = new BufferedOutputStream(new FileOutputStream(pngName(number)));
+			try {
+				file.write(PNG_SIGNATURE);
+				writeHeaderChunk(file);
+				writeChunk(file, "IDAT", compressed, 0, deflate(pixels));
+				writeChunk(file, "IEND", compressed, 0, 0);
+			} finally {
+				file.close();
+			}
+			break;
+		case FORMAT_APNG :
+			// A frame is written when the next one arrives, once it is known how long it is shown for
+			if (heldNumber != -1) {
+				writeApngFrame(heldPixels, number - heldNumber);
+			}
+			System.arraycopy(pixels, 0, heldPixels, 0, WIDTH * HEIGHT);
+			heldNumber = number;
+			break;
+		}
+		framesWritten++;
+	}
+
+	/** Write the last raw or Y4M frame again, for a frame the same as the one before */
+	final void encodeRepeat() throws IOException {
+		if (format == FORMAT_Y4M) {
+			out.write(Y4M_FRAME);
+		}
+		out.write(planes);
+		framesWritten++;
+	}
+
+	/** Called on the encoder thread once the last frame has been encoded */
+	final void finish() throws IOException {
+		if ((format == FORMAT_APNG) && (heldNumber != -1)) {
+			writeApngFrame(heldPixels, Math.max(1, lastFrameNumber - heldNumber + 1));
+		}
+		if (format == FORMAT_APNG) {
+			writeChunk(out, "IEND", compressed, 0, 0);
+		}
+	}
+
+	/** The name of the PNG file for a frame: the capture file name with the frame number before the extension */
+	final String pngName(long number) {
+		String digits = Long.toString(number);
+		while (digits.length() < 6) {
+			digits = "0" + digits;
+		}
+		int dot = filename.lastIndexOf('.');
+		if (dot == -1) dot = filename.length();
+		return filename.substring(0, dot) + "-" + digits + filename.substring(dot);
+	}
+
+	/** Write a frame as Y, U and V planes, using BT.601 limited range */
+	final void writeYuv(int[] pixels) throws IOException {
+		int size = WIDTH * HEIGHT;
+		for (int r = 0; r < size; r++) {
+			int rgb = pixels[r];
+			int red = (rgb >> 16) & 0xFF;
+			int green = (rgb >> 8) & 0xFF;
+			int blue = rgb & 0xFF;
+			planes[r] = (byte) (((66 * red + 129 * green + 25 * blue + 128) >> 8) + 16);
+			planes[size + r] = (byte) (((-38 * red - 74 * green + 112 * blue + 128) >> 8) + 128);
+			planes[size * 2 + r] = (byte) (((112 * red - 94 * green - 18 * blue + 128) >> 8) + 128);
+		}
+		out.write(Y4M_FRAME);
+		out.write(planes);
+	}
+
+	/** Compress a frame as PNG image data into compressed.  Returns the number of bytes. */
+	final int deflate(int[] pixels) {
+		int pos = 0;
+		for (int y = 0; y < HEIGHT; y++) {
+			scanlines[pos++] = 0;           // No filter
+			for (int x = 0; x < WIDTH; x++) {
+				int rgb = pixels[y * WIDTH + x];
+				scanlines[pos++] = (byte) (rgb >> 16);
+				scanlines[pos++] = (byte) (rgb >> 8);
+				scanlines[pos++] = (byte) rgb;
+			}
+		}
+		deflater.reset();
+		deflater.setInput(scanlines, 0, pos);
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length) {
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			}
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+		return length;
+	}
+
+	final void writeApngFrame(int[] pixels, long duration) throws IOException {
+		byte[] control = new byte[26];
+		putInt(control, 0, apngSequence++);
+		putInt(control, 4, WIDTH);
+		putInt(control, 8, HEIGHT);
+		int delay = (int) Math.min(duration, 0xFFFF);
+		control[20] = (byte) (delay >> 8);
+		control[21] = (byte) delay;
+		control[22] = 60 >> 8;              // Close enough to 59.7 frames per second
+		control[23] = 60;
+		writeChunk(out, "fcTL", control, 0, control.length);
+
+		int length = deflate(pixels);
+		if (apngFrames == 0) {
+			writeChunk(out, "IDAT", compressed, 0, length);
+		} else {
+			byte[] data = new byte[length + 4];
+			putInt(data, 0, apngSequence++);
+			System.arraycopy(compressed, 0, data, 4, length);
+			writeChunk(out, "fdAT", data, 0, data.length);
+		}
+		apngFrames++;
+	}
+
+	/** Fill in the frame count in the acTL chunk of a finished APNG */
+	final void setApngFrameCount() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+		try {
+			byte[] chunk = new byte[12];
+			chunk[0] = 'a';
+			chunk[1] = 'c';
+			chunk[2] = 'T';
+			chunk[3] = 'L';
+			putInt(chunk, 4, apngFrames);
+			crc.reset();
+			crc.update(chunk, 0, 12);
+			int offset = PNG_SIGNATURE.length + 25 + 8;
+			file.seek(offset);
+			file.write(chunk, 4, 4);
+			file.seek(offset + 8);
+			file.writeInt((int) crc.getValue());
+		} finally {
+			file.close();
+		}
+	}
+
+	final void writeHeaderChunk(OutputStream o) throws IOException {
+		byte[] header = new byte[13];
+		putInt(header, 0, WIDTH);
+		putInt(header, 4, HEIGHT);
+		header[8] = 8;                      // 8 bits per sample
+		header[9] = 2;                      // RGB
+		writeChunk(o, "IHDR", header, 0, header.length);
+	}
+
+	final void writeChunk(OutputStream o, String type, byte[] data, int offset, int length) throws IOException {
+		putInt(chunkHeader, 0, length);
+		for (int r = 0; r < 4; r++) {
+			chunkHeader[4 + r] = (byte) type.charAt(r);
+		}
+		crc.reset();
+		crc.update(chunkHeader, 4, 4);
+		crc.update(data, offset, length);
+		o.write(chunkHeader);
+		o.write(data, offset, length);
+		int check = (int) crc.getValue();
+		o.write(check >> 24);
+		o.write(check >> 16);
+		o.write(check >> 8);
+		o.write(check);
+	}
+
+	static final void putInt(byte[] b, int offset, int value) {
+		b[offset] = (byte) (value >> 24);
+		b[offset + 1] = (byte) (value >> 16);
+		b[offset + 2] = (byte) (value >> 8);
+		b[offset + 3] = (byte) value;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: java VideoCapture <rom file> <frames> <output file>");
+			System.exit(1);
+		}
+		Dmgcpu dmgcpu = new Dmgcpu(null, Dmgcpu.loadRom(args[0]));
+		ScanlineGraphicsChip chip = new ScanlineGraphicsChip(null, dmgcpu);
+		dmgcpu.graphicsChip = chip;
+		VideoCapture capture = new VideoCapture(args[2], formatFor(args[2]));
+		chip.addSink(capture);
+		dmgcpu.reset();
+
+		int frames = Integer.parseInt(args[1]);
+		long start = System.nanoTime();
+		dmgcpu.runFrames(frames);
+		while (chip.framesRendered < frames) {
+			Thread.sleep(1);
+		}
+		capture.close();
+		chip.dispose();
+		System.out.println(frames + " frames in " + (System.nanoTime() - start) / 1000000 + "ms: " + capture.framesWritten +
+		                   " written, " + capture.framesRepeated + " repeats, " + capture.framesDropped + " dropped");
+	}
+}